@@ -0,0 +1,64 @@
+package com.google;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+
+/**
+ * An {@link OutputSink} that collects the lines of a command in memory and, on {@link #flush},
+ * encodes them in one go and hands them to the underlying stream in a single write.
+ *
+ * <p>Printing a long listing line by line to {@code System.out} locks, encodes and flushes the
+ * shared stream once per line; this sink does each once per command instead. Each player can be
+ * given its own sink, so players writing to different streams don't contend at all. A sink's
+ * methods are synchronized, so a sink can safely be shared between threads.
+ */
+final class BufferedOutputSink implements OutputSink {
+
+  private static final String LINE_SEPARATOR = System.lineSeparator();
+
+  private final OutputStream out;
+  private final Charset charset;
+  private final StringBuilder buffer = new StringBuilder();
+
+  BufferedOutputSink(OutputStream out, Charset charset) {
+    this.out = out;
+    this.charset = charset;
+  }
+
+  /** Creates a sink writing to the given stream in the platform's default charset. */
+  BufferedOutputSink(OutputStream out) {
+    this(out, Charset.defaultCharset());
+  }
+
+  /** Creates a sink writing to standard output. */
+  static BufferedOutputSink stdout() {
+    return new BufferedOutputSink(System.out);
+  }
+
+  @Override
+  public synchronized void print(String text) {
+    buffer.append(text);
+  }
+
+  @Override
+  public synchronized void println(String line) {
+    buffer.append(line).append(LINE_SEPARATOR);
+  }
+
+  @Override
+  public synchronized void flush() {
+    if (buffer.length() == 0) {
+      return;
+    }
+    byte[] bytes = buffer.toString().getBytes(charset);
+    buffer.setLength(0);
+    try {
+      out.write(bytes);
+      out.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
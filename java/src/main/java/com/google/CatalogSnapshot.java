@@ -0,0 +1,243 @@
+package com.google;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.nio.file.attribute.UserPrincipalNotFoundException;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A compact binary copy of a loaded catalog, so that startup can skip parsing videos.txt.
+ *
+ * <p>Layout (big-endian): a fixed header of magic, format version, the modification time and size
+ * of the videos.txt it was built from, video count, tag count and a CRC32 of the payload; then a
+ * payload holding the tag dictionary (each distinct tag once) followed by every video in title
+ * order as title, id and the dictionary indexes of its tags. Strings are length-prefixed UTF-8.
+ *
+ * <p>Reading a snapshot is a single pass over a mapped file with no text scanning; each stored tag
+ * is interned into the library's {@link TagDictionary} once and videos are rebuilt directly from
+ * tag ids. The library's indexes are rebuilt as the videos are added, since they are persistent
+ * trees of heap nodes that a mapped file could not back without a second, read-only
+ * implementation of each; because the videos come in title order, the title order at least is
+ * built in one linear pass. Flag state is not part of the snapshot.
+ */
+class CatalogSnapshot {
+
+  /** System property naming the snapshot file, or "off" to disable snapshots. */
+  static final String SNAPSHOT_PROPERTY = "videos.snapshot";
+
+  private static final int MAGIC = 0x59545643; // "YTVC"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 40;
+
+  /**
+   * Returns where the snapshot for the given catalog lives: the path in the videos.snapshot system
+   * property if set, otherwise a file named after the catalog's URL in a directory of the user's
+   * own, {@code ~/.cache/youtube-challenge}, created readable by its owner only. Snapshots thus
+   * never land among the classes or resources the catalog came from, nor in a directory other
+   * users can write to. Returns null if snapshots are disabled or the directory can't be created.
+   */
+  static Path locate(URL catalog) {
+    String configured = System.getProperty(SNAPSHOT_PROPERTY);
+    if (configured != null) {
+      return configured.equalsIgnoreCase("off") ? null : Path.of(configured);
+    }
+    Path directory = Path.of(System.getProperty("user.home"), ".cache", "youtube-challenge");
+    try {
+      if (directory.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+        Files.createDirectories(directory,
+            PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+      } else {
+        Files.createDirectories(directory);
+      }
+    } catch (IOException e) {
+      return null;
+    }
+    UUID name = UUID.nameUUIDFromBytes(catalog.toString().getBytes(StandardCharsets.UTF_8));
+    return directory.resolve("videos-" + name + ".snapshot");
+  }
+
+  /**
+   * Reads the snapshot and passes its videos to the sink in title order. Returns false, without
+   * calling the sink, if the snapshot is missing, is not owned by the current user, was built
+   * from a different videos.txt (by modification time or size), has an unknown version, fails its
+   * checksum or does not decode.
+   */
+  static boolean read(Path snapshot, long sourceModified, long sourceSize, TagDictionary tags,
+      VideoCatalogLoader.Sink sink) throws IOException {
+    if (!Files.isRegularFile(snapshot) || !ownedByCurrentUser(snapshot)) {
+      return false;
+    }
+    ByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+      if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+        return false;
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    if (buffer.getInt(0) != MAGIC
+        || buffer.getInt(4) != VERSION
+        || buffer.getLong(8) != sourceModified
+        || buffer.getLong(16) != sourceSize) {
+      return false;
+    }
+    int videoCount = buffer.getInt(24);
+    int tagCount = buffer.getInt(28);
+    long checksum = buffer.getLong(32);
+    CRC32 crc = new CRC32();
+    crc.update(buffer.duplicate().position(HEADER_SIZE));
+    if (crc.getValue() != checksum) {
+      return false;
+    }
+
+    // Decode everything before touching the dictionary or the sink, so that a snapshot that
+    // passes its checksum but is malformed falls back to parsing without leaving anything behind.
+    String[] tagNames;
+    String[] titles;
+    String[] ids;
+    int[][] videoTags;
+    try {
+      buffer.position(HEADER_SIZE);
+      tagNames = new String[count(buffer, tagCount)];
+      for (int i = 0; i < tagNames.length; i++) {
+        tagNames[i] = readString(buffer);
+      }
+      titles = new String[count(buffer, videoCount)];
+      ids = new String[titles.length];
+      videoTags = new int[titles.length][];
+      for (int i = 0; i < titles.length; i++) {
+        titles[i] = readString(buffer);
+        ids[i] = readString(buffer);
+        videoTags[i] = new int[count(buffer, buffer.getInt())];
+        for (int j = 0; j < videoTags[i].length; j++) {
+          videoTags[i][j] = buffer.getInt();
+          Objects.checkIndex(videoTags[i][j], tagNames.length);
+        }
+      }
+    } catch (IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException e) {
+      return false;
+    }
+
+    int[] tagIds = new int[tagNames.length];
+    for (int i = 0; i < tagIds.length; i++) {
+      tagIds[i] = tags.intern(tagNames[i]);
+    }
+    for (int i = 0; i < titles.length; i++) {
+      for (int j = 0; j < videoTags[i].length; j++) {
+        videoTags[i][j] = tagIds[videoTags[i][j]];
+      }
+      sink.accept(titles[i], ids[i], videoTags[i]);
+    }
+    return true;
+  }
+
+  /** Checks whether the current user owns the file, so that nobody else can have planted it. */
+  private static boolean ownedByCurrentUser(Path file) throws IOException {
+    try {
+      UserPrincipal user = file.getFileSystem().getUserPrincipalLookupService()
+          .lookupPrincipalByName(System.getProperty("user.name"));
+      return Files.getOwner(file).equals(user);
+    } catch (UserPrincipalNotFoundException | UnsupportedOperationException e) {
+      return false;
+    }
+  }
+
+  /** Returns a stored count, rejecting one that can't fit in the rest of the buffer. */
+  private static int count(ByteBuffer buffer, int count) {
+    if (count < 0 || count > buffer.remaining()) {
+      throw new IllegalArgumentException("Bad count in snapshot: " + count);
+    }
+    return count;
+  }
+
+  /**
+   * Writes the given videos, which must be in title order and use the given dictionary, as the
+   * snapshot for a videos.txt with the given modification time and size. The file is written to
+   * a temporary file of its own beside the target and moved into place, so readers never see a
+   * partial snapshot and concurrent writers never share a file.
+   */
+  static void write(Path snapshot, long sourceModified, long sourceSize, TagDictionary tags,
+      Collection<Video> videos) throws IOException {
+    Path directory = snapshot.toAbsolutePath().getParent();
+    Path temp = Files.createTempFile(directory, snapshot.getFileName().toString(), ".tmp");
+    try {
+      writeTo(temp, sourceModified, sourceSize, tags, videos);
+      Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  private static void writeTo(Path file, long sourceModified, long sourceSize, TagDictionary tags,
+      Collection<Video> videos) throws IOException {
+    int tagCount = tags.size();
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.position(HEADER_SIZE);
+      CRC32 crc = new CRC32();
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          new CheckedOutputStream(Channels.newOutputStream(channel), crc), 1 << 16));
+      for (int i = 0; i < tagCount; i++) {
+        writeString(out, tags.tag(i));
+      }
+      for (Video video : videos) {
+        writeString(out, video.getTitle());
+        writeString(out, video.getVideoId());
+        out.writeInt(video.getTagIds().length);
+        for (int tagId : video.getTagIds()) {
+          out.writeInt(tagId);
+        }
+      }
+      out.flush();
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+          .putInt(MAGIC)
+          .putInt(VERSION)
+          .putLong(sourceModified)
+          .putLong(sourceSize)
+          .putInt(videos.size())
+          .putInt(tagCount)
+          .putLong(crc.getValue())
+          .flip();
+      channel.write(header, 0);
+    }
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length < 0 || length > buffer.remaining()) {
+      throw new BufferUnderflowException();
+    }
+    if (buffer.hasArray()) {
+      String s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+          StandardCharsets.UTF_8);
+      buffer.position(buffer.position() + length);
+      return s;
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+}
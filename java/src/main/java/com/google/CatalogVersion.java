@@ -0,0 +1,479 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One immutable version of a library's catalog: which stored videos it holds, its indexes and the
+ * flag state of its videos.
+ *
+ * <p>Versions are published through {@link CatalogVersions}. A reader takes the current
+ * version once and runs its whole query against it, without locking and without seeing writes
+ * that happen meanwhile. Writers build the next version from the current one and share every
+ * component they do not change. The components are persistent structures (the {@link TitleOrder}
+ * tree, {@link HashTrie}s of posting lists, the {@link VideoIdIndex} trie, chunked bitmaps), so
+ * even a component that does change is copied only along the paths to what changed: a flag change
+ * copies one chunk of flag bits, and an {@link Editor} adding one video copies a few tree and trie
+ * nodes and the posting list chunks of its trigrams, terms and tags.
+ *
+ * <p>Sets of videos (the catalog itself, each tag's videos, the trigram candidates of a title
+ * search) are {@link OrdinalBitmap}s, so a query combines them and drops flagged videos with a few
+ * bitmap operations, and only the videos that make it into the result are put in title order
+ * ({@link #inTitleOrder}) and turned into {@link Video} objects.
+ */
+final class CatalogVersion {
+
+  /** Dead records or tags a store may gather, however small the catalog, before compacting. */
+  private static final int COMPACTION_SLACK = 1024;
+  /** How many leading characters of a folded title {@link #titlePrefixes} holds. */
+  static final int TITLE_PREFIX_LENGTH = 16;
+
+  final VideoStore store;
+  /** Every video in the catalog, in title order. */
+  final TitleOrder titleOrder;
+  private final OrdinalBitmap live;
+  private final VideoIdIndex ids;
+  /** Videos carrying each tag, keyed by tag id. */
+  private final HashTrie<Integer, OrdinalBitmap> tagPostings;
+  final TitleSearchIndex titleIndex;
+  final TermIndex termIndex;
+  /**
+   * The videos by the first {@link #TITLE_PREFIX_LENGTH} characters of their folded titles, for
+   * completing prefixes. The rest of each title is read from the store.
+   */
+  final PrefixTrie titlePrefixes;
+  /** The videos carrying each tag, by the tag, for completing prefixes. */
+  final PrefixTrie tagPrefixes;
+  final FlagStore flags;
+  /** The unflagged videos. */
+  private final OrdinalBitmap playable;
+  /** The unflagged videos again, readable by position for random picks. */
+  private final RandomAccessSet playableList;
+  /** Videos added, removed, flagged or allowed since the previous version. */
+  final OrdinalBitmap changed;
+  /** Videos added since the previous version, a subset of {@link #changed}. */
+  final OrdinalBitmap added;
+
+  /** Creates the empty first version of a store's catalog. */
+  CatalogVersion(VideoStore store) {
+    this(store, new TitleOrder(store), OrdinalBitmap.EMPTY, new VideoIdIndex(store),
+        HashTrie.empty(), new TitleSearchIndex(store), new TermIndex(store), PrefixTrie.EMPTY,
+        PrefixTrie.EMPTY, FlagStore.EMPTY, OrdinalBitmap.EMPTY, RandomAccessSet.EMPTY,
+        OrdinalBitmap.EMPTY, OrdinalBitmap.EMPTY);
+  }
+
+  private CatalogVersion(VideoStore store, TitleOrder titleOrder, OrdinalBitmap live,
+      VideoIdIndex ids, HashTrie<Integer, OrdinalBitmap> tagPostings,
+      TitleSearchIndex titleIndex, TermIndex termIndex, PrefixTrie titlePrefixes,
+      PrefixTrie tagPrefixes, FlagStore flags, OrdinalBitmap playable,
+      RandomAccessSet playableList, OrdinalBitmap changed, OrdinalBitmap added) {
+    this.store = store;
+    this.titleOrder = titleOrder;
+    this.live = live;
+    this.ids = ids;
+    this.tagPostings = tagPostings;
+    this.titleIndex = titleIndex;
+    this.termIndex = termIndex;
+    this.titlePrefixes = titlePrefixes;
+    this.tagPrefixes = tagPrefixes;
+    this.flags = flags;
+    this.playable = playable;
+    this.playableList = playableList;
+    this.changed = changed;
+    this.added = added;
+  }
+
+  /** Returns the number of videos in the catalog. */
+  int size() {
+    return titleOrder.size();
+  }
+
+  /** Checks whether the stored video with the given ordinal is part of this version. */
+  boolean contains(int ordinal) {
+    return live.contains(ordinal);
+  }
+
+  /** Returns the ordinal of the video with the given id, or VideoStore.NOT_FOUND. */
+  int find(String videoId) {
+    return ids.find(videoId);
+  }
+
+  /** Returns every video of this version. */
+  OrdinalBitmap all() {
+    return live;
+  }
+
+  /** Returns the videos carrying the tag with the given id. */
+  OrdinalBitmap tagPostings(int tagId) {
+    return tagPostings.getOrDefault(tagId, OrdinalBitmap.EMPTY);
+  }
+
+  /** Returns the videos of this version that are not flagged. */
+  OrdinalBitmap playable() {
+    return playable;
+  }
+
+  /** Returns the ordinals of a set of this version's videos, in title order. */
+  int[] inTitleOrder(OrdinalBitmap videos) {
+    return titleOrder.sort(videos);
+  }
+
+  boolean isFlagged(int ordinal) {
+    return flags.isFlagged(ordinal);
+  }
+
+  /** Returns the reason the video was flagged with, or null if it is not flagged. */
+  String getFlaggedReason(int ordinal) {
+    return flags.getReason(ordinal);
+  }
+
+  int getNumberOfFlaggedVideos() {
+    return flags.count();
+  }
+
+  /** Returns the number of unflagged videos. */
+  int getNumberOfPlayableVideos() {
+    return playableList.size();
+  }
+
+  /**
+   * Returns the ordinal of the n-th (from 0) unflagged video in an order of the version's own,
+   * which makes a random pick a single lookup.
+   */
+  int pickPlayable(int n) {
+    return playableList.get(n);
+  }
+
+  /**
+   * Returns a version in which the video is flagged with the given reason, or unflagged if the
+   * reason is null. Everything but the flag state is shared with this version. Returns this
+   * version itself if the video is not part of it or already has the requested state; an already
+   * flagged video keeps the reason it was flagged with.
+   */
+  CatalogVersion withFlag(int ordinal, String reason) {
+    if (!contains(ordinal) || (reason == null) != isFlagged(ordinal)) {
+      return this;
+    }
+    OrdinalBitmap video = OrdinalBitmap.of(ordinal);
+    RandomAccessSet.Editor list = playableList.edit();
+    if (reason == null) {
+      list.add(ordinal);
+    } else {
+      list.remove(ordinal);
+    }
+    return new CatalogVersion(store, titleOrder, live, ids, tagPostings, titleIndex, termIndex,
+        titlePrefixes, tagPrefixes, flags.with(ordinal, reason),
+        reason == null ? playable.or(video) : playable.andNot(video), list.build(), video,
+        OrdinalBitmap.EMPTY);
+  }
+
+  /**
+   * Checks whether most of the store's records, or most of its dictionary's tags, are not part of
+   * this version: left behind by removed and replaced videos, they are worth compacting away.
+   */
+  boolean needsCompaction() {
+    int deadRecords = store.ordinalLimit() - size();
+    int deadTags = store.getTagDictionary().size() - tagPostings.size();
+    return deadRecords > Math.max(size(), COMPACTION_SLACK)
+        || deadTags > Math.max(tagPostings.size(), COMPACTION_SLACK);
+  }
+
+  /**
+   * Returns this version rebuilt over a {@link VideoStore#successor} holding only this version's
+   * videos, stored in title order, with a dictionary holding only their tags. Flag states carry
+   * over; every video counts as changed.
+   */
+  CatalogVersion compact() {
+    VideoStore successor = store.successor();
+    TagDictionary tags = store.getTagDictionary();
+    TagDictionary successorTags = successor.getTagDictionary();
+    int[] tagIds = new int[tags.size()];
+    Arrays.fill(tagIds, TagDictionary.NO_TAG);
+    Editor editor = new CatalogVersion(successor).edit();
+    titleOrder.forEach(ordinal -> {
+      int[] videoTags = new int[store.tagCount(ordinal)];
+      for (int i = 0; i < videoTags.length; i++) {
+        int tagId = store.tagId(ordinal, i);
+        if (tagIds[tagId] == TagDictionary.NO_TAG) {
+          tagIds[tagId] = successorTags.intern(tags.tag(tagId));
+        }
+        videoTags[i] = tagIds[tagId];
+      }
+      int copy = successor.add(store.getTitle(ordinal), store.getVideoId(ordinal), videoTags);
+      editor.put(copy);
+      String reason = flags.getReason(ordinal);
+      if (reason != null) {
+        editor.flags.set(copy, reason);
+      }
+    });
+    return editor.build();
+  }
+
+  /** Returns the key of a folded title in {@link #titlePrefixes}: its leading characters. */
+  static String titlePrefix(String folded) {
+    return folded.length() <= TITLE_PREFIX_LENGTH
+        ? folded : folded.substring(0, TITLE_PREFIX_LENGTH);
+  }
+
+  /** Starts building the next version from this one. */
+  Editor edit() {
+    return new Editor();
+  }
+
+  /**
+   * Collects additions and removals against a version and builds the next version from them.
+   * Editors are used by one writer, which holds the monitor of the store's {@link CatalogVersions}.
+   */
+  final class Editor {
+
+    private final VideoIdIndex.Editor ids = CatalogVersion.this.ids.edit();
+    private final FlagStore.Builder flags = CatalogVersion.this.flags.toBuilder();
+    private final OrdinalSet removed = new OrdinalSet();
+    private final OrdinalSet added = new OrdinalSet();
+
+    private Editor() {}
+
+    /** Returns the ordinal of the video with the given id, taking this edit into account. */
+    int find(String videoId) {
+      return ids.find(videoId);
+    }
+
+    /**
+     * Adds the stored video with the given ordinal, replacing the video with the same id if there
+     * is one. A replaced video's flag state carries over to its replacement.
+     */
+    void put(int ordinal) {
+      int replaced = ids.findSameId(ordinal);
+      if (replaced != VideoStore.NOT_FOUND) {
+        if (flags.isFlagged(replaced)) {
+          flags.set(ordinal, flags.getReason(replaced));
+        }
+        remove(replaced);
+      }
+      ids.insert(ordinal);
+      added.add(ordinal);
+    }
+
+    /** Removes the video with the given id. Returns false if there was no such video. */
+    boolean remove(String videoId) {
+      int ordinal = ids.find(videoId);
+      if (ordinal == VideoStore.NOT_FOUND) {
+        return false;
+      }
+      remove(ordinal);
+      return true;
+    }
+
+    private void remove(int ordinal) {
+      ids.delete(ordinal);
+      flags.clear(ordinal);
+      if (added.contains(ordinal)) {
+        added.remove(ordinal);
+      } else {
+        removed.add(ordinal);
+      }
+    }
+
+    /** Builds the next version. The editor must not be used afterwards. */
+    CatalogVersion build() {
+      if (added.isEmpty() && removed.isEmpty()) {
+        return CatalogVersion.this;
+      }
+      OrdinalBitmap removedSet = removed.toBitmap();
+      OrdinalBitmap addedSet = added.toBitmap();
+      Map<String, OrdinalBitmap.Builder> titleChanges = new HashMap<>();
+      removedSet.forEach(ordinal -> titleChanges.computeIfAbsent(
+          titlePrefix(store.getFoldedTitle(ordinal)), k -> new OrdinalBitmap.Builder()));
+      addedSet.forEach(ordinal -> titleChanges.computeIfAbsent(
+          titlePrefix(store.getFoldedTitle(ordinal)), k -> new OrdinalBitmap.Builder())
+          .add(ordinal));
+      PrefixTrie nextTitlePrefixes = titlePrefixes;
+      for (Map.Entry<String, OrdinalBitmap.Builder> change : titleChanges.entrySet()) {
+        nextTitlePrefixes = nextTitlePrefixes.put(change.getKey(),
+            titlePrefixes.get(change.getKey()).andNot(removedSet).or(change.getValue().build()));
+      }
+      Map<Integer, OrdinalBitmap.Builder> tagChanges = tagChanges(removedSet, addedSet);
+      HashTrie<Integer, OrdinalBitmap> nextTagPostings = editTagPostings(tagChanges, removedSet);
+      PrefixTrie nextTagPrefixes = tagPrefixes;
+      TagDictionary tags = store.getTagDictionary();
+      for (int tagId : tagChanges.keySet()) {
+        nextTagPrefixes = nextTagPrefixes.put(tags.tag(tagId),
+            nextTagPostings.getOrDefault(tagId, OrdinalBitmap.EMPTY));
+      }
+      FlagStore nextFlags = flags.build();
+      OrdinalBitmap addedPlayable = nextFlags.removeFlagged(addedSet);
+      RandomAccessSet.Editor list = playableList.edit();
+      removedSet.forEach(list::remove);
+      addedPlayable.forEach(list::add);
+      return new CatalogVersion(store, titleOrder.edit(removedSet, addedSet),
+          live.andNot(removedSet).or(addedSet), ids.build(),
+          nextTagPostings, titleIndex.edit(removedSet, addedSet),
+          termIndex.edit(removedSet, addedSet), nextTitlePrefixes, nextTagPrefixes, nextFlags,
+          playable.andNot(removedSet).or(addedPlayable), list.build(), removedSet.or(addedSet),
+          addedSet);
+    }
+
+    /**
+     * Returns the ids of the tags the changes touch, each with a builder holding the added videos
+     * that carry it.
+     */
+    private Map<Integer, OrdinalBitmap.Builder> tagChanges(OrdinalBitmap removedSet,
+        OrdinalBitmap addedSet) {
+      Map<Integer, OrdinalBitmap.Builder> changes = new HashMap<>();
+      removedSet.forEach(ordinal -> {
+        for (int i = 0, count = store.tagCount(ordinal); i < count; i++) {
+          changes.computeIfAbsent(store.tagId(ordinal, i), k -> new OrdinalBitmap.Builder());
+        }
+      });
+      addedSet.forEach(ordinal -> {
+        for (int i = 0, count = store.tagCount(ordinal); i < count; i++) {
+          changes.computeIfAbsent(store.tagId(ordinal, i), k -> new OrdinalBitmap.Builder())
+              .add(ordinal);
+        }
+      });
+      return changes;
+    }
+
+    /** Applies the changes to the posting lists of the tags they touch. */
+    private HashTrie<Integer, OrdinalBitmap> editTagPostings(
+        Map<Integer, OrdinalBitmap.Builder> changes, OrdinalBitmap removedSet) {
+      HashTrie.Editor<Integer, OrdinalBitmap> edited = tagPostings.edit();
+      for (Map.Entry<Integer, OrdinalBitmap.Builder> change : changes.entrySet()) {
+        OrdinalBitmap postings = tagPostings(change.getKey())
+            .andNot(removedSet)
+            .or(change.getValue().build());
+        if (postings.isEmpty()) {
+          edited.remove(change.getKey());
+        } else {
+          edited.put(change.getKey(), postings);
+        }
+      }
+      return edited.build();
+    }
+  }
+
+  /**
+   * The ordinals an edit adds or removes, as 1024-word chunks of bits allocated on first use, so
+   * a small edit takes a few words however large its ordinals are.
+   */
+  private static final class OrdinalSet {
+
+    private static final int CHUNK_WORDS = 1 << 10;
+
+    private final HashMap<Integer, long[]> chunks = new HashMap<>();
+    private int size;
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    boolean contains(int ordinal) {
+      long[] words = chunks.get(ordinal >>> 16);
+      return words != null && (words[(ordinal >>> 6) & (CHUNK_WORDS - 1)] & (1L << ordinal)) != 0;
+    }
+
+    void add(int ordinal) {
+      long[] words = chunks.computeIfAbsent(ordinal >>> 16, k -> new long[CHUNK_WORDS]);
+      int word = (ordinal >>> 6) & (CHUNK_WORDS - 1);
+      if ((words[word] & (1L << ordinal)) == 0) {
+        words[word] |= 1L << ordinal;
+        size++;
+      }
+    }
+
+    void remove(int ordinal) {
+      long[] words = chunks.get(ordinal >>> 16);
+      int word = (ordinal >>> 6) & (CHUNK_WORDS - 1);
+      if (words != null && (words[word] & (1L << ordinal)) != 0) {
+        words[word] &= ~(1L << ordinal);
+        size--;
+      }
+    }
+
+    OrdinalBitmap toBitmap() {
+      Integer[] keys = chunks.keySet().toArray(new Integer[0]);
+      Arrays.sort(keys);
+      OrdinalBitmap.Builder builder = new OrdinalBitmap.Builder();
+      for (int key : keys) {
+        long[] words = chunks.get(key);
+        for (int w = 0; w < CHUNK_WORDS; w++) {
+          for (long word = words[w]; word != 0; word &= word - 1) {
+            builder.add(key << 16 | w * Long.SIZE + Long.numberOfTrailingZeros(word));
+          }
+        }
+      }
+      return builder.build();
+    }
+  }
+
+  /**
+   * A set of ordinals that can also be read by position: the members in no particular order, and
+   * each member's position (plus one, so that zero means absent) by ordinal. A removed member's
+   * place is taken by the last one, so adding or removing sets a few values in the vectors.
+   */
+  private static final class RandomAccessSet {
+
+    static final RandomAccessSet EMPTY =
+        new RandomAccessSet(OrdinalVector.EMPTY, OrdinalVector.EMPTY);
+
+    private final OrdinalVector members;
+    private final OrdinalVector positions;
+
+    private RandomAccessSet(OrdinalVector members, OrdinalVector positions) {
+      this.members = members;
+      this.positions = positions;
+    }
+
+    int size() {
+      return members.size();
+    }
+
+    int get(int index) {
+      return members.get(index);
+    }
+
+    Editor edit() {
+      return new Editor(this);
+    }
+
+    static final class Editor {
+
+      private final OrdinalVector.Editor members;
+      private final OrdinalVector.Editor positions;
+
+      private Editor(RandomAccessSet set) {
+        this.members = set.members.edit();
+        this.positions = set.positions.edit();
+      }
+
+      void add(int ordinal) {
+        if (position(ordinal) < 0) {
+          positions.set(ordinal, members.size() + 1);
+          members.add(ordinal);
+        }
+      }
+
+      void remove(int ordinal) {
+        int position = position(ordinal);
+        if (position < 0) {
+          return;
+        }
+        int last = members.removeLast();
+        if (last != ordinal) {
+          members.set(position, last);
+          positions.set(last, position + 1);
+        }
+        positions.set(ordinal, 0);
+      }
+
+      RandomAccessSet build() {
+        return new RandomAccessSet(members.build(), positions.build());
+      }
+
+      private int position(int ordinal) {
+        return ordinal < positions.size() ? positions.get(ordinal) - 1 : -1;
+      }
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package com.google;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes the successive {@link CatalogVersion}s of a library's catalog through an atomic
+ * reference. Readers take the current version without locking. Writers hold this object's monitor
+ * while they append records and build and publish the next version, so writes are applied one at
+ * a time and never lost.
+ *
+ * <p>Records are only ever appended to a store, so each replaced or removed video leaves a dead
+ * record behind, and each removed tag a dead dictionary entry. Once most of the records or tags of
+ * the current store are dead, publishing compacts: the version is rebuilt over a fresh store (a
+ * {@link VideoStore#successor}) holding only its own videos and their tags, and that rebuilt
+ * version is published instead. Nothing is freed by hand; the old store, its dictionary and the
+ * versions over it are garbage once no reader, cache entry or {@link Video} refers to them. The
+ * rebuild costs about as much as loading the catalog, and happens after at least as many changes
+ * as the catalog has videos, so it adds a constant amount of work per change.
+ */
+final class CatalogVersions {
+
+  /** Told about every version published, e.g. to invalidate what it changed. */
+  interface PublishListener {
+    /** Called after the version is made current, while the writer still holds the monitor. */
+    void published(CatalogVersion version);
+  }
+
+  private final AtomicReference<CatalogVersion> current;
+  private final List<PublishListener> listeners = new CopyOnWriteArrayList<>();
+
+  /** Starts with the empty version of the given store. */
+  CatalogVersions(VideoStore store) {
+    this.current = new AtomicReference<>(new CatalogVersion(store));
+  }
+
+  /** Returns the current catalog version. */
+  CatalogVersion current() {
+    return current.get();
+  }
+
+  void addPublishListener(PublishListener listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Makes the given version current, first compacting it if most of its store is dead. Callers
+   * must hold this object's monitor.
+   */
+  void publish(CatalogVersion next) {
+    if (next.needsCompaction()) {
+      next = next.compact();
+    }
+    if (current.getAndSet(next) == next) {
+      return;
+    }
+    next.store.published(next);
+    for (PublishListener listener : listeners) {
+      listener.published(next);
+    }
+  }
+
+  /**
+   * Flags the video with the given id with the given reason, or removes its flag if the reason is
+   * null. The flag state is tested and set under this object's monitor, so of two concurrent calls
+   * only one changes it. Returns false if the video was already in the requested state (a flagged
+   * video keeps its first reason) or is not in the catalog.
+   */
+  synchronized boolean setFlag(String videoId, String reason) {
+    CatalogVersion version = current();
+    int ordinal = version.find(videoId);
+    if (ordinal == VideoStore.NOT_FOUND) {
+      return false;
+    }
+    CatalogVersion next = version.withFlag(ordinal, reason);
+    publish(next);
+    return next != version;
+  }
+}
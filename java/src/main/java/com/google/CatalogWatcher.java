@@ -0,0 +1,110 @@
+package com.google;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches the videos.txt a {@link VideoLibrary} was loaded from and reloads the library whenever
+ * the file changes.
+ *
+ * <p>Events are taken on a daemon thread. A burst of events (an editor's truncate-then-write, or a
+ * write-then-rename) is collapsed into one reload once the directory has been quiet for a short
+ * while. The watcher never writes to the user itself: it hands a report of each reload to its
+ * caller, who shows it between commands. Closing the watcher stops its thread.
+ */
+class CatalogWatcher implements Closeable {
+
+  /** How long the directory must be quiet before a change is reloaded. */
+  private static final long SETTLE_MILLIS = 200;
+
+  private final VideoLibrary library;
+  private final Consumer<String> reports;
+  private final Path file;
+  private final WatchService watchService;
+
+  private CatalogWatcher(VideoLibrary library, Consumer<String> reports, Path file)
+      throws IOException {
+    this.library = library;
+    this.reports = reports;
+    this.file = file;
+    this.watchService = file.getFileSystem().newWatchService();
+    file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_MODIFY);
+  }
+
+  /**
+   * Starts watching the library's videos.txt, passing a line reporting each reload to the given
+   * consumer from the watcher's thread. Throws an IOException if the catalog is not a plain file,
+   * for example when it was loaded from inside a jar.
+   */
+  static CatalogWatcher watch(VideoLibrary library, Consumer<String> reports)
+      throws IOException {
+    URL catalog = library.getCatalog();
+    if (catalog == null || !"file".equals(catalog.getProtocol())) {
+      throw new IOException("videos.txt is not a file on disk");
+    }
+    Path file;
+    try {
+      file = Path.of(catalog.toURI());
+    } catch (URISyntaxException e) {
+      throw new IOException("Invalid catalog location: " + catalog, e);
+    }
+    CatalogWatcher watcher = new CatalogWatcher(library, reports, file);
+    Thread thread = new Thread(watcher::run, "videos.txt watcher");
+    thread.setDaemon(true);
+    thread.start();
+    return watcher;
+  }
+
+  private void run() {
+    try {
+      while (true) {
+        boolean changed = drain(watchService.take());
+        WatchKey next;
+        while ((next = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+          changed |= drain(next);
+        }
+        if (changed) {
+          reload();
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      // Closed; stop watching.
+    }
+  }
+
+  /** Consumes the key's events and returns whether any of them concern videos.txt. */
+  private boolean drain(WatchKey key) {
+    boolean changed = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      changed |= event.kind() == StandardWatchEventKinds.OVERFLOW
+          || file.getFileName().equals(event.context());
+    }
+    key.reset();
+    return changed;
+  }
+
+  private void reload() {
+    try {
+      reports.accept("videos.txt reloaded: " + library.reload());
+    } catch (IOException | RuntimeException e) {
+      reports.accept("Couldn't reload videos.txt: " + e.getMessage());
+    }
+  }
+
+  /** Stops watching. */
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+  }
+}
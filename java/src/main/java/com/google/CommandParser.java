@@ -1,6 +1,7 @@
 package com.google;
 
 import java.util.List;
+import java.util.Locale;
 
 /**
  * A class used to parse and execute a user Command.
@@ -8,34 +9,51 @@ import java.util.List;
 class CommandParser {
 
   private final VideoPlayer videoPlayer;
+  private final OutputSink out;
 
   CommandParser(VideoPlayer videoPlayer) {
     this.videoPlayer = videoPlayer;
+    this.out = videoPlayer.output();
   }
 
   /**
-   * Executes the given user command.
+   * Executes the given user command and flushes its output.
    */
   public void executeCommand(List<String> command) {
+    try {
+      execute(command);
+    } finally {
+      out.flush();
+    }
+  }
+
+  private void execute(List<String> command) {
     if (command.isEmpty()) {
-      System.out.println(
+      out.println(
           "Please enter a valid command, " +
               "type HELP for a list of available commands.");
       return;
     }
 
-    switch (command.get(0).toUpperCase()) {
+    switch (command.get(0).toUpperCase(Locale.ROOT)) {
       case "NUMBER_OF_VIDEOS":
         this.videoPlayer.numberOfVideos();
         break;
       case "SHOW_ALL_VIDEOS":
         this.videoPlayer.showAllVideos();
         break;
+      case "NEXT_PAGE":
+        try {
+          this.videoPlayer.showNextPage(command.get(1));
+        } catch (ArrayIndexOutOfBoundsException e) {
+          out.println("Please enter NEXT_PAGE command followed by the cursor of the last page.");
+        }
+        break;
       case "PLAY":
         try {
           this.videoPlayer.playVideo(command.get(1));
         } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println("Please enter PLAY command followed by video_id.");
+          out.println("Please enter PLAY command followed by video_id.");
         }
         break;
       case "PLAY_RANDOM":
@@ -57,7 +75,7 @@ class CommandParser {
         try {
           this.videoPlayer.createPlaylist(command.get(1));
         } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println(
+          out.println(
               "Please enter CREATE_PLAYLIST command followed by a " +
                   "playlist name.");
         }
@@ -66,7 +84,7 @@ class CommandParser {
         try {
           this.videoPlayer.addVideoToPlaylist(command.get(1), command.get(2));
         } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println(
+          out.println(
               "Please enter ADD_TO_PLAYLIST command followed by a "
                   + "playlist name and video_id to add.");
         }
@@ -75,7 +93,7 @@ class CommandParser {
         try {
           this.videoPlayer.removeFromPlaylist(command.get(1), command.get(2));
         } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println(
+          out.println(
               "Please enter REMOVE_FROM_PLAYLIST command followed by a "
                   + "playlist name and video_id to remove.");
         }
@@ -84,7 +102,7 @@ class CommandParser {
         try {
           this.videoPlayer.clearPlaylist(command.get(1));
         } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println(
+          out.println(
               "Please enter CLEAR_PLAYLIST command followed by a "
                   + "playlist name.");
         }
@@ -93,7 +111,7 @@ class CommandParser {
         try {
           this.videoPlayer.deletePlaylist(command.get(1));
         } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println(
+          out.println(
               "Please enter DELETE_PLAYLIST command followed by a " +
                   "playlist name.");
         }
@@ -102,30 +120,74 @@ class CommandParser {
         try {
           this.videoPlayer.showPlaylist(command.get(1));
         } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println("Please enter SHOW_PLAYLIST command followed by a " +
+          out.println("Please enter SHOW_PLAYLIST command followed by a " +
               "playlist name.");
         }
         break;
       case "SHOW_ALL_PLAYLISTS":
-        this.videoPlayer.showAllPlaylists();
+        if (command.size() == 1) {
+          this.videoPlayer.showAllPlaylists();
+          break;
+        }
+        try {
+          int limit = Integer.parseInt(command.get(1));
+          if (limit < 1) {
+            throw new NumberFormatException();
+          }
+          String startAfter = command.size() > 2 ? command.get(2) : null;
+          this.videoPlayer.showAllPlaylists(limit, startAfter);
+        } catch (NumberFormatException e) {
+          out.println(
+              "Please enter SHOW_ALL_PLAYLISTS command optionally followed by a "
+                  + "page size and the playlist name to start after.");
+        }
         break;
       case "SEARCH_VIDEOS":
         try {
           this.videoPlayer.searchVideos(command.get(1));
         } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println("Please enter SEARCH_VIDEOS command followed by a " +
+          out.println("Please enter SEARCH_VIDEOS command followed by a " +
               "search term.");
         }
         break;
+      case "SEARCH_VIDEOS_RANKED":
+        if (command.size() < 2) {
+          out.println(
+              "Please enter SEARCH_VIDEOS_RANKED command followed by "
+                  + "search words.");
+          break;
+        }
+        this.videoPlayer.searchVideosRanked(
+            String.join(" ", command.subList(1, command.size())));
+        break;
       case "SEARCH_VIDEOS_WITH_TAG":
         try {
           this.videoPlayer.searchVideosWithTag(command.get(1));
         } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println(
+          out.println(
               "Please enter SEARCH_VIDEOS_WITH_TAG command followed by a " +
                   "video tag.");
         }
         break;
+      case "SEARCH_VIDEOS_WITH_TAGS":
+        if (command.size() < 2) {
+          out.println(
+              "Please enter SEARCH_VIDEOS_WITH_TAGS command followed by a "
+                  + "tag query, e.g. #cat AND #animal NOT #google.");
+          break;
+        }
+        this.videoPlayer.searchVideosWithTags(
+            String.join(" ", command.subList(1, command.size())));
+        break;
+      case "AUTOCOMPLETE":
+        if (command.size() < 2) {
+          out.println(
+              "Please enter AUTOCOMPLETE command followed by the start of a "
+                  + "title or tag.");
+          break;
+        }
+        this.videoPlayer.autocomplete(String.join(" ", command.subList(1, command.size())));
+        break;
       case "FLAG_VIDEO":
         try {
           this.videoPlayer.flagVideo(command.get(1), command.get(2));
@@ -133,7 +195,7 @@ class CommandParser {
           try {
             this.videoPlayer.flagVideo(command.get(1));
           } catch (ArrayIndexOutOfBoundsException f) {
-            System.out.println("Please enter FLAG_VIDEO command followed by a" +
+            out.println("Please enter FLAG_VIDEO command followed by a" +
                 "video_id and an optional flag reason.");
           }
         }
@@ -142,15 +204,18 @@ class CommandParser {
         try {
           this.videoPlayer.allowVideo(command.get(1));
         } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println("Please enter ALLOW_VIDEO command followed by a " +
+          out.println("Please enter ALLOW_VIDEO command followed by a " +
               "video_id.");
         }
         break;
+      case "CACHE_STATS":
+        this.videoPlayer.showCacheStats();
+        break;
       case "HELP":
         this.getHelp();
         break;
       default:
-        System.out.println(
+        out.println(
             "Please enter a valid command, type HELP for a list of "
             + "available commands.");
         break;
@@ -165,6 +230,7 @@ class CommandParser {
         "Available commands:\n"
             + "    NUMBER_OF_VIDEOS - Shows how many videos are in the library.\n"
             + "    SHOW_ALL_VIDEOS - Lists all videos from the library.\n"
+            + "    NEXT_PAGE <cursor> - Shows the next page of a video list or search.\n"
             + "    PLAY <video_id> - Plays specified video.\n"
             + "    PLAY_RANDOM - Plays a random video from the library.\n"
             + "    STOP - Stop the current video.\n"
@@ -177,13 +243,17 @@ class CommandParser {
             + "    CLEAR_PLAYLIST <playlist_name> - Removes all the videos from the playlist.\n"
             + "    DELETE_PLAYLIST <playlist_name> - Deletes the playlist.\n"
             + "    SHOW_PLAYLIST <playlist_name> - List all the videos in this playlist.\n"
-            + "    SHOW_ALL_PLAYLISTS - Display all the available playlists.\n"
+            + "    SHOW_ALL_PLAYLISTS [<page_size> [<start_after>]] - Display all the available playlists, or one page of them.\n"
             + "    SEARCH_VIDEOS <search_term> - Display all the videos whose titles contain the search_term.\n"
+            + "    SEARCH_VIDEOS_RANKED <words> - Display the 10 videos whose titles and tags match the words best, most relevant first.\n"
             + "    SEARCH_VIDEOS_WITH_TAG <tag_name> -Display all videos whose tags contains the provided tag.\n"
+            + "    SEARCH_VIDEOS_WITH_TAGS <tag_query> - Display all videos matching tags combined with AND, OR and NOT, e.g. #cat AND #animal NOT #google.\n"
+            + "    AUTOCOMPLETE <prefix> - Display the first titles (or tags, for a prefix starting with #) that start with the prefix.\n"
             + "    FLAG_VIDEO <video_id> <flag_reason> - Mark a video as flagged.\n"
             + "    ALLOW_VIDEO <video_id> - Removes a flag from a video.\n"
+            + "    CACHE_STATS - Displays hit, miss, eviction and invalidation counts of the search cache.\n"
             + "    HELP - Displays help.\n"
             + "    EXIT - Terminates the program execution.\n";
-    System.out.println(helpText);
+    out.println(helpText);
   }
 }
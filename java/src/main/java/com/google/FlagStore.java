@@ -0,0 +1,124 @@
+package com.google;
+
+import java.util.Arrays;
+
+/**
+ * The flag state of the videos of a {@link CatalogVersion}: one bit per video ordinal, with the
+ * reasons kept in a side map.
+ *
+ * <p>A FlagStore never changes once built, so any number of threads can test flags without
+ * locking; a change produces a new store (see {@link #with} and {@link Builder}) that is published
+ * with the next catalog version. The bits are kept in chunks of 65536, one per chunk of an
+ * {@link OrdinalBitmap}, and the reasons in a {@link HashTrie}, so a new store copies only the
+ * chunks and trie paths that change and shares the rest. Testing a flag is a single bit test, and
+ * a whole set of ordinals can be filtered against the flags a 64-bit word at a time.
+ */
+final class FlagStore {
+
+  static final FlagStore EMPTY = new FlagStore(new long[0][], HashTrie.empty());
+
+  /** Words in the bits of one chunk. */
+  private static final int CHUNK_WORDS = 1 << 10;
+
+  /** The bits of each chunk of ordinals, or null where no ordinal of the chunk is flagged. */
+  private final long[][] chunks;
+  private final HashTrie<Integer, String> reasons;
+
+  private FlagStore(long[][] chunks, HashTrie<Integer, String> reasons) {
+    this.chunks = chunks;
+    this.reasons = reasons;
+  }
+
+  boolean isFlagged(int ordinal) {
+    int chunk = ordinal >>> 16;
+    return chunk < chunks.length && chunks[chunk] != null
+        && (chunks[chunk][(ordinal >>> 6) & (CHUNK_WORDS - 1)] & (1L << ordinal)) != 0;
+  }
+
+  /** Returns the reason the video was flagged with, or null if it is not flagged. */
+  String getReason(int ordinal) {
+    return reasons.get(ordinal);
+  }
+
+  /** Returns the number of flagged videos. */
+  int count() {
+    return reasons.size();
+  }
+
+  /** Returns a store in which the video is flagged with the reason, or unflagged if it is null. */
+  FlagStore with(int ordinal, String reason) {
+    Builder builder = toBuilder();
+    if (reason == null) {
+      builder.clear(ordinal);
+    } else {
+      builder.set(ordinal, reason);
+    }
+    return builder.build();
+  }
+
+  /** Returns the given ordinals without the flagged ones, filtered a word at a time. */
+  OrdinalBitmap removeFlagged(OrdinalBitmap ordinals) {
+    return count() == 0 ? ordinals : ordinals.andNot(chunks);
+  }
+
+  /** Returns a builder starting from this store's flags. */
+  Builder toBuilder() {
+    return new Builder(this);
+  }
+
+  /** Accumulates changes to a FlagStore for one writer. */
+  static final class Builder {
+
+    private long[][] chunks;
+    /** Chunks this builder has copied, and may change in place. */
+    private boolean[] copied;
+    private final HashTrie.Editor<Integer, String> reasons;
+
+    private Builder(FlagStore flags) {
+      this.chunks = flags.chunks.clone();
+      this.copied = new boolean[chunks.length];
+      this.reasons = flags.reasons.edit();
+    }
+
+    boolean isFlagged(int ordinal) {
+      return reasons.get(ordinal) != null;
+    }
+
+    String getReason(int ordinal) {
+      return reasons.get(ordinal);
+    }
+
+    void set(int ordinal, String reason) {
+      int chunk = ordinal >>> 16;
+      if (chunk >= chunks.length) {
+        int length = Math.max(chunk + 1, chunks.length * 2);
+        chunks = Arrays.copyOf(chunks, length);
+        copied = Arrays.copyOf(copied, length);
+      }
+      words(chunk)[(ordinal >>> 6) & (CHUNK_WORDS - 1)] |= 1L << ordinal;
+      reasons.put(ordinal, reason);
+    }
+
+    void clear(int ordinal) {
+      int chunk = ordinal >>> 16;
+      if (chunk < chunks.length && chunks[chunk] != null) {
+        words(chunk)[(ordinal >>> 6) & (CHUNK_WORDS - 1)] &= ~(1L << ordinal);
+      }
+      reasons.remove(ordinal);
+    }
+
+    /** Returns the words of a chunk, copying them first if they are shared with a store. */
+    private long[] words(int chunk) {
+      if (!copied[chunk]) {
+        chunks[chunk] = chunks[chunk] == null ? new long[CHUNK_WORDS] : chunks[chunk].clone();
+        copied[chunk] = true;
+      }
+      return chunks[chunk];
+    }
+
+    /** Builds the store. The builder must not be used afterwards. */
+    FlagStore build() {
+      return new FlagStore(chunks, reasons.build());
+    }
+  }
+}
@@ -0,0 +1,317 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * A persistent hash map: a hash array mapped trie whose nodes pick one of 32 slots by 5 bits of
+ * the key's hash at a time, each slot holding an entry inline or a deeper node.
+ *
+ * <p>A map never changes once built. An {@link Editor} makes a batch of changes and builds a new
+ * map that shares every node off the paths to the keys it changed, so an edit copies a few small
+ * arrays however large the map is; an editor copies each node the first time it changes it and
+ * changes its own copies in place after that.
+ */
+final class HashTrie<K, V> {
+
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+  /** Nodes below this shift have used up the hash and keep their colliding keys in a list. */
+  private static final int MAX_SHIFT = 30;
+
+  private static final HashTrie<?, ?> EMPTY =
+      new HashTrie<>(new Node(null, 0, 0, new Object[0]), 0);
+
+  private final Node root;
+  private final int size;
+
+  private HashTrie(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  @SuppressWarnings("unchecked")
+  static <K, V> HashTrie<K, V> empty() {
+    return (HashTrie<K, V>) EMPTY;
+  }
+
+  int size() {
+    return size;
+  }
+
+  V get(Object key) {
+    return getOrDefault(key, null);
+  }
+
+  V getOrDefault(Object key, V fallback) {
+    return find(root, key, fallback);
+  }
+
+  /** Returns a map with the key mapped to the value. */
+  HashTrie<K, V> with(K key, V value) {
+    Editor<K, V> editor = edit();
+    editor.put(key, value);
+    return editor.build();
+  }
+
+  /** Returns a map without the key. */
+  HashTrie<K, V> without(Object key) {
+    Editor<K, V> editor = edit();
+    editor.remove(key);
+    return editor.build();
+  }
+
+  /** Passes every entry to the action, in no particular order. */
+  @SuppressWarnings("unchecked")
+  void forEach(BiConsumer<? super K, ? super V> action) {
+    forEach(root, 0, (BiConsumer<Object, Object>) action);
+  }
+
+  /** Starts a batch of changes to this map. */
+  Editor<K, V> edit() {
+    return new Editor<>(this);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <V> V find(Node node, Object key, V fallback) {
+    int hash = key.hashCode();
+    for (int shift = 0; shift <= MAX_SHIFT; shift += BITS) {
+      int bit = bit(hash, shift);
+      if ((node.dataMap & bit) != 0) {
+        int index = node.dataIndex(bit);
+        return key.equals(node.array[index]) ? (V) node.array[index + 1] : fallback;
+      }
+      if ((node.nodeMap & bit) == 0) {
+        return fallback;
+      }
+      node = (Node) node.array[node.nodeIndex(bit)];
+    }
+    for (int i = 0; i < node.array.length; i += 2) {
+      if (key.equals(node.array[i])) {
+        return (V) node.array[i + 1];
+      }
+    }
+    return fallback;
+  }
+
+  private static void forEach(Node node, int shift, BiConsumer<Object, Object> action) {
+    int entries = shift > MAX_SHIFT ? node.array.length : 2 * Integer.bitCount(node.dataMap);
+    for (int i = 0; i < entries; i += 2) {
+      action.accept(node.array[i], node.array[i + 1]);
+    }
+    for (int i = entries; i < node.array.length; i++) {
+      forEach((Node) node.array[i], shift + BITS, action);
+    }
+  }
+
+  private static int bit(int hash, int shift) {
+    return 1 << ((hash >>> shift) & MASK);
+  }
+
+  /**
+   * A trie node. Below MAX_SHIFT the array holds a key and value for each bit of dataMap, in bit
+   * order, followed by a node for each bit of nodeMap; a collision node holds only pairs.
+   */
+  private static final class Node {
+
+    /** The token of the editor that may change this node in place. */
+    final Object owner;
+    int dataMap;
+    int nodeMap;
+    Object[] array;
+
+    Node(Object owner, int dataMap, int nodeMap, Object[] array) {
+      this.owner = owner;
+      this.dataMap = dataMap;
+      this.nodeMap = nodeMap;
+      this.array = array;
+    }
+
+    int dataIndex(int bit) {
+      return 2 * Integer.bitCount(dataMap & (bit - 1));
+    }
+
+    int nodeIndex(int bit) {
+      return 2 * Integer.bitCount(dataMap) + Integer.bitCount(nodeMap & (bit - 1));
+    }
+  }
+
+  /** Changes to a map for one writer. The editor must not be used once it has built its map. */
+  static final class Editor<K, V> {
+
+    private Object owner = new Object();
+    private Node root;
+    private int size;
+
+    private Editor(HashTrie<K, V> map) {
+      this.root = map.root;
+      this.size = map.size;
+    }
+
+    V get(Object key) {
+      return find(root, key, null);
+    }
+
+    void put(K key, V value) {
+      checkOpen();
+      root = put(root, key, key.hashCode(), value, 0);
+    }
+
+    void remove(Object key) {
+      checkOpen();
+      root = remove(root, key, key.hashCode(), 0);
+    }
+
+    HashTrie<K, V> build() {
+      checkOpen();
+      owner = null;
+      return new HashTrie<>(root, size);
+    }
+
+    private void checkOpen() {
+      if (owner == null) {
+        throw new IllegalStateException("The editor has already built its map");
+      }
+    }
+
+    private Node put(Node node, Object key, int hash, Object value, int shift) {
+      Object[] array = node.array;
+      if (shift > MAX_SHIFT) {
+        for (int i = 0; i < array.length; i += 2) {
+          if (key.equals(array[i])) {
+            return withValue(node, i + 1, value);
+          }
+        }
+        size++;
+        Object[] grown = Arrays.copyOf(array, array.length + 2);
+        grown[array.length] = key;
+        grown[array.length + 1] = value;
+        return changed(node, 0, 0, grown);
+      }
+      int bit = bit(hash, shift);
+      if ((node.dataMap & bit) != 0) {
+        int index = node.dataIndex(bit);
+        Object existing = array[index];
+        if (key.equals(existing)) {
+          return withValue(node, index + 1, value);
+        }
+        size++;
+        Node child = pair(existing, existing.hashCode(), array[index + 1], key, hash, value,
+            shift + BITS);
+        // The pair moves out of the entries and the new node goes among the nodes.
+        int entries = 2 * Integer.bitCount(node.dataMap);
+        int nodesBefore = Integer.bitCount(node.nodeMap & (bit - 1));
+        Object[] result = new Object[array.length - 1];
+        System.arraycopy(array, 0, result, 0, index);
+        System.arraycopy(array, index + 2, result, index, entries - index - 2 + nodesBefore);
+        result[entries - 2 + nodesBefore] = child;
+        System.arraycopy(array, entries + nodesBefore, result, entries - 1 + nodesBefore,
+            array.length - entries - nodesBefore);
+        return changed(node, node.dataMap ^ bit, node.nodeMap | bit, result);
+      }
+      if ((node.nodeMap & bit) != 0) {
+        int index = node.nodeIndex(bit);
+        Node child = (Node) array[index];
+        Node edited = put(child, key, hash, value, shift + BITS);
+        return edited == child ? node : withValue(node, index, edited);
+      }
+      size++;
+      int index = node.dataIndex(bit);
+      Object[] result = new Object[array.length + 2];
+      System.arraycopy(array, 0, result, 0, index);
+      result[index] = key;
+      result[index + 1] = value;
+      System.arraycopy(array, index, result, index + 2, array.length - index);
+      return changed(node, node.dataMap | bit, node.nodeMap, result);
+    }
+
+    private Node remove(Node node, Object key, int hash, int shift) {
+      Object[] array = node.array;
+      if (shift > MAX_SHIFT) {
+        for (int i = 0; i < array.length; i += 2) {
+          if (key.equals(array[i])) {
+            size--;
+            return changed(node, 0, 0, without(array, i, 2));
+          }
+        }
+        return node;
+      }
+      int bit = bit(hash, shift);
+      if ((node.dataMap & bit) != 0) {
+        int index = node.dataIndex(bit);
+        if (!key.equals(array[index])) {
+          return node;
+        }
+        size--;
+        return changed(node, node.dataMap ^ bit, node.nodeMap, without(array, index, 2));
+      }
+      if ((node.nodeMap & bit) == 0) {
+        return node;
+      }
+      int index = node.nodeIndex(bit);
+      Node child = (Node) array[index];
+      Node edited = remove(child, key, hash, shift + BITS);
+      if (edited == child) {
+        return node;
+      }
+      if (edited.nodeMap != 0 || edited.array.length != 2) {
+        return withValue(node, index, edited);
+      }
+      // A single entry is left below: keep it in this node instead.
+      int dataIndex = node.dataIndex(bit);
+      Object[] result = new Object[array.length + 1];
+      System.arraycopy(array, 0, result, 0, dataIndex);
+      result[dataIndex] = edited.array[0];
+      result[dataIndex + 1] = edited.array[1];
+      System.arraycopy(array, dataIndex, result, dataIndex + 2, index - dataIndex);
+      System.arraycopy(array, index + 1, result, index + 2, array.length - index - 1);
+      return changed(node, node.dataMap | bit, node.nodeMap ^ bit, result);
+    }
+
+    /** Returns a node holding the two entries, whose hashes agree below the given shift. */
+    private Node pair(Object key, int hash, Object value, Object otherKey, int otherHash,
+        Object otherValue, int shift) {
+      if (shift > MAX_SHIFT) {
+        return new Node(owner, 0, 0, new Object[] {key, value, otherKey, otherValue});
+      }
+      int bit = bit(hash, shift);
+      int otherBit = bit(otherHash, shift);
+      if (bit == otherBit) {
+        return new Node(owner, 0, bit, new Object[] {
+            pair(key, hash, value, otherKey, otherHash, otherValue, shift + BITS)});
+      }
+      return new Node(owner, bit | otherBit, 0, Integer.compareUnsigned(bit, otherBit) < 0
+          ? new Object[] {key, value, otherKey, otherValue}
+          : new Object[] {otherKey, otherValue, key, value});
+    }
+
+    /** Returns the node with one array slot changed, copying it unless this editor owns it. */
+    private Node withValue(Node node, int index, Object value) {
+      if (node.array[index] == value) {
+        return node;
+      }
+      Node result = node.owner == owner
+          ? node
+          : new Node(owner, node.dataMap, node.nodeMap, node.array.clone());
+      result.array[index] = value;
+      return result;
+    }
+
+    private Node changed(Node node, int dataMap, int nodeMap, Object[] array) {
+      if (node.owner != owner) {
+        return new Node(owner, dataMap, nodeMap, array);
+      }
+      node.dataMap = dataMap;
+      node.nodeMap = nodeMap;
+      node.array = array;
+      return node;
+    }
+
+    private static Object[] without(Object[] array, int index, int length) {
+      Object[] result = new Object[array.length - length];
+      System.arraycopy(array, 0, result, 0, index);
+      System.arraycopy(array, index + length, result, index, result.length - index);
+      return result;
+    }
+  }
+}
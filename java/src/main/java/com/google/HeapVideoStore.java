@@ -0,0 +1,118 @@
+package com.google;
+
+import java.util.Arrays;
+
+/**
+ * A {@link VideoStore} keeping each video's strings and tag ids as ordinary heap objects.
+ *
+ * <p>The arrays are volatile so that a reader which did not take the writers' monitor still sees
+ * every record of the version it is reading after an array has been grown.
+ */
+class HeapVideoStore extends VideoStore {
+
+  private volatile String[] titles = new String[16];
+  private volatile String[] foldedTitles = new String[16];
+  private volatile String[] videoIds = new String[16];
+  private volatile int[][] tagIds = new int[16][];
+  private int ordinalLimit;
+
+  HeapVideoStore(TagDictionary tagDictionary) {
+    super(tagDictionary);
+  }
+
+  private HeapVideoStore(TagDictionary tagDictionary, CatalogVersions versions) {
+    super(tagDictionary, versions);
+  }
+
+  @Override
+  VideoStore successor() {
+    return new HeapVideoStore(new TagDictionary(), versions());
+  }
+
+  @Override
+  int add(String title, String videoId, int[] tags) {
+    int ordinal = ordinalLimit++;
+    if (ordinal == titles.length) {
+      int capacity = ordinal * 2;
+      titles = Arrays.copyOf(titles, capacity);
+      foldedTitles = Arrays.copyOf(foldedTitles, capacity);
+      videoIds = Arrays.copyOf(videoIds, capacity);
+      tagIds = Arrays.copyOf(tagIds, capacity);
+    }
+    titles[ordinal] = title;
+    foldedTitles[ordinal] = TitleSearchIndex.fold(title);
+    videoIds[ordinal] = videoId;
+    tagIds[ordinal] = tags;
+    return ordinal;
+  }
+
+  @Override
+  int ordinalLimit() {
+    return ordinalLimit;
+  }
+
+  @Override
+  String getTitle(int ordinal) {
+    return titles[ordinal];
+  }
+
+  @Override
+  String getFoldedTitle(int ordinal) {
+    return foldedTitles[ordinal];
+  }
+
+  @Override
+  boolean foldedTitleContains(int ordinal, String term) {
+    return foldedTitles[ordinal].contains(term);
+  }
+
+  @Override
+  String getVideoId(int ordinal) {
+    return videoIds[ordinal];
+  }
+
+  @Override
+  int compareTitle(int ordinal, String title) {
+    return titles[ordinal].compareTo(title);
+  }
+
+  @Override
+  int compareVideoId(int ordinal, String videoId) {
+    return videoIds[ordinal].compareTo(videoId);
+  }
+
+  @Override
+  int[] getTagIds(int ordinal) {
+    return tagIds[ordinal];
+  }
+
+  @Override
+  int tagCount(int ordinal) {
+    return tagIds[ordinal].length;
+  }
+
+  @Override
+  int tagId(int ordinal, int index) {
+    return tagIds[ordinal][index];
+  }
+
+  @Override
+  int compareTitles(int ordinal, int otherOrdinal) {
+    return titles[ordinal].compareTo(titles[otherOrdinal]);
+  }
+
+  @Override
+  int compareVideoIds(int ordinal, int otherOrdinal) {
+    return videoIds[ordinal].compareTo(videoIds[otherOrdinal]);
+  }
+
+  @Override
+  int hashVideoId(int ordinal) {
+    return videoIds[ordinal].hashCode();
+  }
+
+  @Override
+  boolean videoIdEquals(int ordinal, String videoId) {
+    return videoIds[ordinal].equals(videoId);
+  }
+}
@@ -0,0 +1,356 @@
+package com.google;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * A {@link VideoStore} that packs titles, ids and tag ids into direct (off-heap) buffers.
+ *
+ * <p>Each field is a column: one direct buffer holding every value back to back, plus a direct
+ * offset table holding the start and length of the value of each ordinal. Strings are kept as
+ * UTF-16 chars so they can be compared, hashed and searched in place, which lets the catalog's
+ * id index ({@link VideoIdIndex}) hold nothing but ordinals and lets searches check titles
+ * without copying them to the heap; tag ids are likewise read one at a time. No per-video heap
+ * objects remain once a video is added. Columns are append-only, and the buffers are volatile so
+ * that readers which did not take the writers' monitor see a grown buffer. A column's buffer
+ * stops growing just short of 2 GiB; adding a video that does not fit throws
+ * IllegalStateException and leaves every column as it was. The buffers of a store the catalog has
+ * moved on from are freed with it.
+ */
+class OffHeapVideoStore extends VideoStore {
+
+  /** The largest buffer a column grows to; larger arrays are beyond what most VMs allocate. */
+  private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+  private final CharColumn titles = new CharColumn();
+  private final CharColumn foldedTitles = new CharColumn();
+  private final CharColumn videoIds = new CharColumn();
+  private final IntColumn tagIds = new IntColumn();
+
+  OffHeapVideoStore(TagDictionary tagDictionary) {
+    super(tagDictionary);
+  }
+
+  private OffHeapVideoStore(TagDictionary tagDictionary, CatalogVersions versions) {
+    super(tagDictionary, versions);
+  }
+
+  @Override
+  VideoStore successor() {
+    return new OffHeapVideoStore(new TagDictionary(), versions());
+  }
+
+  @Override
+  int add(String title, String videoId, int[] tags) {
+    String foldedTitle = TitleSearchIndex.fold(title);
+    // Grow every column before writing to any, so that a full column leaves them all aligned.
+    titles.reserve(title.length());
+    foldedTitles.reserve(foldedTitle.length());
+    videoIds.reserve(videoId.length());
+    tagIds.reserve(tags.length);
+    int ordinal = titles.count();
+    titles.add(title);
+    foldedTitles.add(foldedTitle);
+    videoIds.add(videoId);
+    tagIds.add(tags);
+    return ordinal;
+  }
+
+  @Override
+  int ordinalLimit() {
+    return titles.count();
+  }
+
+  @Override
+  String getTitle(int ordinal) {
+    return titles.get(ordinal);
+  }
+
+  @Override
+  String getFoldedTitle(int ordinal) {
+    return foldedTitles.get(ordinal);
+  }
+
+  @Override
+  boolean foldedTitleContains(int ordinal, String term) {
+    return foldedTitles.contains(ordinal, term);
+  }
+
+  @Override
+  String getVideoId(int ordinal) {
+    return videoIds.get(ordinal);
+  }
+
+  @Override
+  int compareTitle(int ordinal, String title) {
+    return titles.compare(ordinal, title);
+  }
+
+  @Override
+  int compareVideoId(int ordinal, String videoId) {
+    return videoIds.compare(ordinal, videoId);
+  }
+
+  @Override
+  int[] getTagIds(int ordinal) {
+    return tagIds.get(ordinal);
+  }
+
+  @Override
+  int tagCount(int ordinal) {
+    return tagIds.length(ordinal);
+  }
+
+  @Override
+  int tagId(int ordinal, int index) {
+    return tagIds.get(ordinal, index);
+  }
+
+  @Override
+  int compareTitles(int ordinal, int otherOrdinal) {
+    return titles.compare(ordinal, otherOrdinal);
+  }
+
+  @Override
+  int compareVideoIds(int ordinal, int otherOrdinal) {
+    return videoIds.compare(ordinal, otherOrdinal);
+  }
+
+  @Override
+  int hashVideoId(int ordinal) {
+    return videoIds.hash(ordinal);
+  }
+
+  @Override
+  boolean videoIdEquals(int ordinal, String videoId) {
+    return videoIds.equalTo(ordinal, videoId);
+  }
+
+  /**
+   * A direct ByteBuffer grown by doubling, up to {@link #MAX_CAPACITY} bytes. Throws
+   * IllegalStateException if the buffer would have to grow past that.
+   */
+  static ByteBuffer grow(ByteBuffer buffer, long minCapacity) {
+    if (minCapacity <= buffer.capacity()) {
+      return buffer;
+    }
+    if (minCapacity > MAX_CAPACITY) {
+      throw new IllegalStateException("An off-heap column can't grow past " + MAX_CAPACITY
+          + " bytes; " + minCapacity + " needed");
+    }
+    long capacity = buffer.capacity();
+    while (capacity < minCapacity) {
+      capacity *= 2;
+    }
+    ByteBuffer grown = ByteBuffer.allocateDirect((int) Math.min(capacity, MAX_CAPACITY));
+    grown.put(buffer.duplicate().clear());
+    return grown.clear();
+  }
+
+  /** Offsets of the values of a column: a direct table of (start, length) pairs by index. */
+  private static final class Offsets {
+
+    private volatile ByteBuffer table = ByteBuffer.allocateDirect(1 << 8);
+
+    /** Makes room for the offsets of the given index. */
+    void reserve(int index) {
+      table = grow(table, ((long) index + 1) * 2 * Integer.BYTES);
+    }
+
+    void set(int index, int start, int length) {
+      ByteBuffer grown = grow(table, ((long) index + 1) * 2 * Integer.BYTES);
+      grown.putInt(index * 2 * Integer.BYTES, start);
+      grown.putInt((index * 2 + 1) * Integer.BYTES, length);
+      table = grown;
+    }
+
+    int start(int index) {
+      return table.getInt(index * 2 * Integer.BYTES);
+    }
+
+    int length(int index) {
+      return table.getInt((index * 2 + 1) * Integer.BYTES);
+    }
+  }
+
+  /** A column of strings stored as UTF-16 chars in direct memory. */
+  private static final class CharColumn {
+
+    private volatile ByteBuffer data = ByteBuffer.allocateDirect(1 << 12);
+    private final Offsets offsets = new Offsets();
+    private int count;
+    private int end;
+
+    int count() {
+      return count;
+    }
+
+    /** Makes room for one more value of the given length. */
+    void reserve(int length) {
+      data = grow(data, ((long) end + length) * Character.BYTES);
+      offsets.reserve(count);
+    }
+
+    void add(String value) {
+      int length = value.length();
+      ByteBuffer grown = grow(data, ((long) end + length) * Character.BYTES);
+      for (int i = 0; i < length; i++) {
+        grown.putChar((end + i) * Character.BYTES, value.charAt(i));
+      }
+      data = grown;
+      offsets.set(count++, end, length);
+      end += length;
+    }
+
+    private int start(int index) {
+      return offsets.start(index);
+    }
+
+    private int length(int index) {
+      return offsets.length(index);
+    }
+
+    private static char charAt(ByteBuffer data, int start, int i) {
+      return data.getChar((start + i) * Character.BYTES);
+    }
+
+    String get(int index) {
+      ByteBuffer data = this.data;
+      int start = start(index);
+      char[] chars = new char[length(index)];
+      for (int i = 0; i < chars.length; i++) {
+        chars[i] = charAt(data, start, i);
+      }
+      return new String(chars);
+    }
+
+    /** Returns the same value as String.hashCode for the stored value. */
+    int hash(int index) {
+      ByteBuffer data = this.data;
+      int start = start(index);
+      int length = length(index);
+      int hash = 0;
+      for (int i = 0; i < length; i++) {
+        hash = 31 * hash + charAt(data, start, i);
+      }
+      return hash;
+    }
+
+    boolean equalTo(int index, String value) {
+      int length = length(index);
+      if (length != value.length()) {
+        return false;
+      }
+      ByteBuffer data = this.data;
+      int start = start(index);
+      for (int i = 0; i < length; i++) {
+        if (charAt(data, start, i) != value.charAt(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /** Checks whether the stored value contains the given one, as String.contains would. */
+    boolean contains(int index, String value) {
+      int length = length(index);
+      int valueLength = value.length();
+      if (valueLength == 0) {
+        return true;
+      }
+      ByteBuffer data = this.data;
+      int start = start(index);
+      char first = value.charAt(0);
+      for (int from = 0; from <= length - valueLength; from++) {
+        if (charAt(data, start, from) != first) {
+          continue;
+        }
+        int i = 1;
+        while (i < valueLength && charAt(data, start, from + i) == value.charAt(i)) {
+          i++;
+        }
+        if (i == valueLength) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /** Compares two stored values the way String.compareTo would. */
+    int compare(int index, int otherIndex) {
+      ByteBuffer data = this.data;
+      int start = start(index);
+      int otherStart = start(otherIndex);
+      int length = length(index);
+      int otherLength = length(otherIndex);
+      int limit = Math.min(length, otherLength);
+      for (int i = 0; i < limit; i++) {
+        char c = charAt(data, start, i);
+        char other = charAt(data, otherStart, i);
+        if (c != other) {
+          return c - other;
+        }
+      }
+      return length - otherLength;
+    }
+
+    /** Compares a stored value to the given one the way String.compareTo would. */
+    int compare(int index, String other) {
+      ByteBuffer data = this.data;
+      int start = start(index);
+      int length = length(index);
+      int limit = Math.min(length, other.length());
+      for (int i = 0; i < limit; i++) {
+        char c = charAt(data, start, i);
+        if (c != other.charAt(i)) {
+          return c - other.charAt(i);
+        }
+      }
+      return length - other.length();
+    }
+  }
+
+  /** A column of int arrays stored in direct memory. */
+  private static final class IntColumn {
+
+    private volatile ByteBuffer data = ByteBuffer.allocateDirect(1 << 12);
+    private final Offsets offsets = new Offsets();
+    private int count;
+    private int end;
+
+    /** Makes room for one more array of the given length. */
+    void reserve(int length) {
+      data = grow(data, ((long) end + length) * Integer.BYTES);
+      offsets.reserve(count);
+    }
+
+    void add(int[] values) {
+      ByteBuffer grown = grow(data, ((long) end + values.length) * Integer.BYTES);
+      IntBuffer ints = grown.asIntBuffer();
+      ints.position(end);
+      ints.put(values);
+      data = grown;
+      offsets.set(count++, end, values.length);
+      end += values.length;
+    }
+
+    int[] get(int index) {
+      ByteBuffer data = this.data;
+      int start = offsets.start(index);
+      int[] values = new int[offsets.length(index)];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = data.getInt((start + i) * Integer.BYTES);
+      }
+      return values;
+    }
+
+    int length(int index) {
+      return offsets.length(index);
+    }
+
+    /** Returns the i-th value of the array at index, read in place. */
+    int get(int index, int i) {
+      return data.getInt((offsets.start(index) + i) * Integer.BYTES);
+    }
+  }
+}
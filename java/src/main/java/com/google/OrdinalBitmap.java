@@ -0,0 +1,622 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * An immutable, compressed set of video ordinals in the style of a roaring bitmap.
+ *
+ * <p>Ordinals are split by their high 16 bits into chunks of 65536. Each non-empty chunk is held in
+ * whichever container is smallest: a sorted array of the low 16 bits (for at most 4096 values), a
+ * 1024-word bitmap, or a list of runs. Set operations go chunk by chunk, so chunks only one side
+ * has are skipped or shared without being looked at, and an operation that leaves a chunk
+ * unchanged shares its container with the input. Editing a large posting list therefore copies
+ * only the chunks that change.
+ */
+final class OrdinalBitmap {
+
+  static final OrdinalBitmap EMPTY = new OrdinalBitmap(new char[0], new Container[0], 0);
+
+  /** Chunks with at most this many values are kept as sorted arrays. */
+  private static final int ARRAY_LIMIT = 4096;
+  /** Words in the bitmap of one chunk. */
+  private static final int WORDS = 1 << 10;
+  private static final int BITMAP_BYTES = WORDS * Long.BYTES;
+
+  private final char[] keys;
+  private final Container[] containers;
+  private final int cardinality;
+
+  private OrdinalBitmap(char[] keys, Container[] containers, int size) {
+    this.keys = keys.length == size ? keys : Arrays.copyOf(keys, size);
+    this.containers = containers.length == size ? containers : Arrays.copyOf(containers, size);
+    int cardinality = 0;
+    for (Container container : this.containers) {
+      cardinality += container.cardinality();
+    }
+    this.cardinality = cardinality;
+  }
+
+  /** Returns a bitmap holding the given ordinals, which need not be sorted or distinct. */
+  static OrdinalBitmap of(int... ordinals) {
+    int[] sorted = ordinals.clone();
+    Arrays.sort(sorted);
+    Builder builder = new Builder();
+    for (int ordinal : sorted) {
+      builder.add(ordinal);
+    }
+    return builder.build();
+  }
+
+  int cardinality() {
+    return cardinality;
+  }
+
+  boolean isEmpty() {
+    return cardinality == 0;
+  }
+
+  boolean contains(int ordinal) {
+    int index = Arrays.binarySearch(keys, (char) (ordinal >>> 16));
+    return index >= 0 && containers[index].contains((char) ordinal);
+  }
+
+  /** Returns the ordinals in both bitmaps. */
+  OrdinalBitmap and(OrdinalBitmap other) {
+    if (isEmpty() || other.isEmpty()) {
+      return EMPTY;
+    }
+    int length = Math.min(keys.length, other.keys.length);
+    char[] resultKeys = new char[length];
+    Container[] result = new Container[length];
+    int size = 0;
+    for (int i = 0, j = 0; i < keys.length && j < other.keys.length; ) {
+      if (keys[i] < other.keys[j]) {
+        i++;
+      } else if (keys[i] > other.keys[j]) {
+        j++;
+      } else {
+        Container container = and(containers[i], other.containers[j]);
+        if (container != null) {
+          resultKeys[size] = keys[i];
+          result[size++] = container;
+        }
+        i++;
+        j++;
+      }
+    }
+    return new OrdinalBitmap(resultKeys, result, size);
+  }
+
+  /** Returns the ordinals in either bitmap. */
+  OrdinalBitmap or(OrdinalBitmap other) {
+    if (other.isEmpty()) {
+      return this;
+    }
+    if (isEmpty()) {
+      return other;
+    }
+    char[] resultKeys = new char[keys.length + other.keys.length];
+    Container[] result = new Container[resultKeys.length];
+    int size = 0;
+    int i = 0;
+    int j = 0;
+    while (i < keys.length || j < other.keys.length) {
+      if (j == other.keys.length || (i < keys.length && keys[i] < other.keys[j])) {
+        resultKeys[size] = keys[i];
+        result[size++] = containers[i++];
+      } else if (i == keys.length || keys[i] > other.keys[j]) {
+        resultKeys[size] = other.keys[j];
+        result[size++] = other.containers[j++];
+      } else {
+        resultKeys[size] = keys[i];
+        result[size++] = or(containers[i++], other.containers[j++]);
+      }
+    }
+    return new OrdinalBitmap(resultKeys, result, size);
+  }
+
+  /**
+   * Checks whether the two bitmaps share an ordinal, without building their intersection: each
+   * pair of containers with the same key is probed from the smaller one, stopping at the first
+   * value both hold.
+   */
+  boolean intersects(OrdinalBitmap other) {
+    int i = 0;
+    int j = 0;
+    while (i < keys.length && j < other.keys.length) {
+      if (keys[i] < other.keys[j]) {
+        i++;
+      } else if (keys[i] > other.keys[j]) {
+        j++;
+      } else {
+        Container a = containers[i++];
+        Container b = other.containers[j++];
+        if (a.cardinality() <= b.cardinality() ? a.anyIn(b) : b.anyIn(a)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /** Returns the ordinals in this bitmap but not in the other. */
+  OrdinalBitmap andNot(OrdinalBitmap other) {
+    if (isEmpty() || other.isEmpty()) {
+      return this;
+    }
+    char[] resultKeys = new char[keys.length];
+    Container[] result = new Container[keys.length];
+    int size = 0;
+    int j = 0;
+    for (int i = 0; i < keys.length; i++) {
+      while (j < other.keys.length && other.keys[j] < keys[i]) {
+        j++;
+      }
+      Container container = j < other.keys.length && other.keys[j] == keys[i]
+          ? andNot(containers[i], other.containers[j])
+          : containers[i];
+      if (container != null) {
+        resultKeys[size] = keys[i];
+        result[size++] = container;
+      }
+    }
+    return new OrdinalBitmap(resultKeys, result, size);
+  }
+
+  /**
+   * Returns the ordinals in this bitmap whose bit is clear in the given chunks (bit i of chunk c
+   * standing for ordinal 65536 * c + i; a missing or null chunk has no bits set). Each chunk is
+   * combined with the container of the same chunk a word at a time.
+   */
+  OrdinalBitmap andNot(long[][] chunks) {
+    char[] resultKeys = new char[keys.length];
+    Container[] result = new Container[keys.length];
+    int size = 0;
+    for (int i = 0; i < keys.length; i++) {
+      Container container = keys[i] < chunks.length && chunks[keys[i]] != null
+          ? andNot(containers[i], chunks[keys[i]])
+          : containers[i];
+      if (container != null) {
+        resultKeys[size] = keys[i];
+        result[size++] = container;
+      }
+    }
+    return new OrdinalBitmap(resultKeys, result, size);
+  }
+
+  /** Passes every ordinal to the action, in ascending order. */
+  void forEach(IntConsumer action) {
+    for (int i = 0; i < keys.length; i++) {
+      containers[i].forEach(keys[i] << 16, action);
+    }
+  }
+
+  /** Returns the ordinals in ascending order. */
+  int[] toArray() {
+    int[] ordinals = new int[cardinality];
+    int[] count = {0};
+    forEach(ordinal -> ordinals[count[0]++] = ordinal);
+    return ordinals;
+  }
+
+  private static Container and(Container a, Container b) {
+    if (b instanceof ArrayContainer && !(a instanceof ArrayContainer)) {
+      return and(b, a);
+    }
+    if (a instanceof ArrayContainer) {
+      char[] values = ((ArrayContainer) a).values;
+      char[] kept = new char[values.length];
+      int count = 0;
+      for (char value : values) {
+        if (b.contains(value)) {
+          kept[count++] = value;
+        }
+      }
+      return count == values.length ? a : ArrayContainer.of(kept, count);
+    }
+    long[] words = a.toWords();
+    long[] other = b.toWords();
+    for (int i = 0; i < WORDS; i++) {
+      words[i] &= other[i];
+    }
+    return Container.fromWords(words);
+  }
+
+  private static Container or(Container a, Container b) {
+    if (a instanceof ArrayContainer && b instanceof ArrayContainer
+        && a.cardinality() + b.cardinality() <= ARRAY_LIMIT) {
+      char[] left = ((ArrayContainer) a).values;
+      char[] right = ((ArrayContainer) b).values;
+      char[] merged = new char[left.length + right.length];
+      int count = 0;
+      int i = 0;
+      int j = 0;
+      while (i < left.length || j < right.length) {
+        if (j == right.length || (i < left.length && left[i] < right[j])) {
+          merged[count++] = left[i++];
+        } else if (i == left.length || left[i] > right[j]) {
+          merged[count++] = right[j++];
+        } else {
+          merged[count++] = left[i++];
+          j++;
+        }
+      }
+      return count == left.length ? a : ArrayContainer.of(merged, count);
+    }
+    long[] words = a.toWords();
+    long[] other = b.toWords();
+    for (int i = 0; i < WORDS; i++) {
+      words[i] |= other[i];
+    }
+    Container result = Container.fromWords(words);
+    return result.cardinality() == a.cardinality() ? a : result;
+  }
+
+  private static Container andNot(Container a, Container b) {
+    if (a instanceof ArrayContainer) {
+      char[] values = ((ArrayContainer) a).values;
+      char[] kept = new char[values.length];
+      int count = 0;
+      for (char value : values) {
+        if (!b.contains(value)) {
+          kept[count++] = value;
+        }
+      }
+      return count == values.length ? a : ArrayContainer.of(kept, count);
+    }
+    long[] words = a.toWords();
+    long[] other = b.toWords();
+    for (int i = 0; i < WORDS; i++) {
+      words[i] &= ~other[i];
+    }
+    Container result = Container.fromWords(words);
+    return result != null && result.cardinality() == a.cardinality() ? a : result;
+  }
+
+  private static Container andNot(Container a, long[] words) {
+    if (a instanceof ArrayContainer) {
+      char[] values = ((ArrayContainer) a).values;
+      char[] kept = new char[values.length];
+      int count = 0;
+      for (char value : values) {
+        if ((words[value >>> 6] & (1L << value)) == 0) {
+          kept[count++] = value;
+        }
+      }
+      return count == values.length ? a : ArrayContainer.of(kept, count);
+    }
+    long[] result = a.toWords();
+    for (int i = 0; i < WORDS; i++) {
+      result[i] &= ~words[i];
+    }
+    Container container = Container.fromWords(result);
+    return container != null && container.cardinality() == a.cardinality() ? a : container;
+  }
+
+  /** Collects ordinals, added in ascending order, into a bitmap. */
+  static final class Builder {
+
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int size;
+    private int currentKey = -1;
+    private char[] values = new char[16];
+    private int count;
+
+    /** Adds an ordinal no smaller than any added before; repeating the last one is allowed. */
+    void add(int ordinal) {
+      int key = ordinal >>> 16;
+      if (key != currentKey) {
+        flush();
+        currentKey = key;
+      }
+      char value = (char) ordinal;
+      if (count > 0 && values[count - 1] == value) {
+        return;
+      }
+      if (count == values.length) {
+        values = Arrays.copyOf(values, count * 2);
+      }
+      values[count++] = value;
+    }
+
+    OrdinalBitmap build() {
+      flush();
+      return size == 0 ? EMPTY : new OrdinalBitmap(keys, containers, size);
+    }
+
+    private void flush() {
+      if (count == 0) {
+        return;
+      }
+      if (size == keys.length) {
+        keys = Arrays.copyOf(keys, size * 2);
+        containers = Arrays.copyOf(containers, size * 2);
+      }
+      Container container;
+      if (count <= ARRAY_LIMIT) {
+        container = ArrayContainer.of(values, count);
+      } else {
+        long[] words = new long[WORDS];
+        for (int i = 0; i < count; i++) {
+          words[values[i] >>> 6] |= 1L << values[i];
+        }
+        container = Container.fromWords(words);
+      }
+      keys[size] = (char) currentKey;
+      containers[size++] = container;
+      count = 0;
+    }
+  }
+
+  /** The values of one chunk: the low 16 bits of its ordinals. */
+  private abstract static class Container {
+
+    abstract int cardinality();
+
+    abstract boolean contains(char value);
+
+    /** Checks whether the other container holds any of this container's values. */
+    abstract boolean anyIn(Container other);
+
+    abstract void forEach(int high, IntConsumer action);
+
+    /** Returns a new 1024-word bitmap of the values. */
+    abstract long[] toWords();
+
+    /** Returns the smallest container for the set bits, or null if there are none. */
+    static Container fromWords(long[] words) {
+      int cardinality = 0;
+      int runs = 0;
+      long carry = 0;
+      for (long word : words) {
+        cardinality += Long.bitCount(word);
+        runs += Long.bitCount(word & ~(word << 1 | carry));
+        carry = word >>> 63;
+      }
+      if (cardinality == 0) {
+        return null;
+      }
+      int runBytes = runs * 2 * Character.BYTES;
+      int arrayBytes = cardinality * Character.BYTES;
+      if (runBytes < Math.min(arrayBytes, BITMAP_BYTES)) {
+        return RunContainer.of(words, runs, cardinality);
+      }
+      if (cardinality <= ARRAY_LIMIT) {
+        char[] values = new char[cardinality];
+        int count = 0;
+        for (int w = 0; w < WORDS; w++) {
+          for (long word = words[w]; word != 0; word &= word - 1) {
+            values[count++] = (char) (w * Long.SIZE + Long.numberOfTrailingZeros(word));
+          }
+        }
+        return new ArrayContainer(values);
+      }
+      return new BitmapContainer(words, cardinality);
+    }
+  }
+
+  /** A sorted array of values. */
+  private static final class ArrayContainer extends Container {
+
+    final char[] values;
+
+    ArrayContainer(char[] values) {
+      this.values = values;
+    }
+
+    /** Returns a container of the first count values, or null if count is 0. */
+    static ArrayContainer of(char[] values, int count) {
+      return count == 0 ? null : new ArrayContainer(Arrays.copyOf(values, count));
+    }
+
+    @Override
+    int cardinality() {
+      return values.length;
+    }
+
+    @Override
+    boolean contains(char value) {
+      return Arrays.binarySearch(values, value) >= 0;
+    }
+
+    @Override
+    boolean anyIn(Container other) {
+      for (char value : values) {
+        if (other.contains(value)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    void forEach(int high, IntConsumer action) {
+      for (char value : values) {
+        action.accept(high | value);
+      }
+    }
+
+    @Override
+    long[] toWords() {
+      long[] words = new long[WORDS];
+      for (char value : values) {
+        words[value >>> 6] |= 1L << value;
+      }
+      return words;
+    }
+  }
+
+  /** A bitmap of all 65536 possible values. */
+  private static final class BitmapContainer extends Container {
+
+    private final long[] words;
+    private final int cardinality;
+
+    BitmapContainer(long[] words, int cardinality) {
+      this.words = words;
+      this.cardinality = cardinality;
+    }
+
+    @Override
+    int cardinality() {
+      return cardinality;
+    }
+
+    @Override
+    boolean contains(char value) {
+      return (words[value >>> 6] & (1L << value)) != 0;
+    }
+
+    @Override
+    boolean anyIn(Container other) {
+      if (other instanceof BitmapContainer) {
+        long[] otherWords = ((BitmapContainer) other).words;
+        for (int w = 0; w < WORDS; w++) {
+          if ((words[w] & otherWords[w]) != 0) {
+            return true;
+          }
+        }
+        return false;
+      }
+      for (int w = 0; w < WORDS; w++) {
+        for (long word = words[w]; word != 0; word &= word - 1) {
+          if (other.contains((char) (w * Long.SIZE + Long.numberOfTrailingZeros(word)))) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+
+    @Override
+    void forEach(int high, IntConsumer action) {
+      for (int w = 0; w < WORDS; w++) {
+        for (long word = words[w]; word != 0; word &= word - 1) {
+          action.accept(high | (w * Long.SIZE + Long.numberOfTrailingZeros(word)));
+        }
+      }
+    }
+
+    @Override
+    long[] toWords() {
+      return words.clone();
+    }
+  }
+
+  /** Runs of consecutive values, as (first, last) pairs in ascending order. */
+  private static final class RunContainer extends Container {
+
+    private final char[] runs;
+    private final int cardinality;
+
+    private RunContainer(char[] runs, int cardinality) {
+      this.runs = runs;
+      this.cardinality = cardinality;
+    }
+
+    static RunContainer of(long[] words, int runCount, int cardinality) {
+      char[] runs = new char[runCount * 2];
+      int count = 0;
+      for (int start = nextSetBit(words, 0); start >= 0; ) {
+        int end = nextClearBit(words, start);
+        runs[count++] = (char) start;
+        runs[count++] = (char) (end - 1);
+        start = nextSetBit(words, end);
+      }
+      return new RunContainer(runs, cardinality);
+    }
+
+    private static int nextSetBit(long[] words, int from) {
+      int w = from >>> 6;
+      if (w >= WORDS) {
+        return -1;
+      }
+      for (long word = words[w] & (-1L << from); ; word = words[w]) {
+        if (word != 0) {
+          return w * Long.SIZE + Long.numberOfTrailingZeros(word);
+        }
+        if (++w == WORDS) {
+          return -1;
+        }
+      }
+    }
+
+    private static int nextClearBit(long[] words, int from) {
+      int w = from >>> 6;
+      for (long word = ~words[w] & (-1L << from); ; word = ~words[w]) {
+        if (word != 0) {
+          return w * Long.SIZE + Long.numberOfTrailingZeros(word);
+        }
+        if (++w == WORDS) {
+          return WORDS * Long.SIZE;
+        }
+      }
+    }
+
+    @Override
+    int cardinality() {
+      return cardinality;
+    }
+
+    @Override
+    boolean contains(char value) {
+      int low = 0;
+      int high = runs.length / 2 - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        if (value < runs[2 * mid]) {
+          high = mid - 1;
+        } else if (value > runs[2 * mid + 1]) {
+          low = mid + 1;
+        } else {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    boolean anyIn(Container other) {
+      for (int i = 0; i < runs.length; i += 2) {
+        for (int value = runs[i]; value <= runs[i + 1]; value++) {
+          if (other.contains((char) value)) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+
+    @Override
+    void forEach(int high, IntConsumer action) {
+      for (int i = 0; i < runs.length; i += 2) {
+        for (int value = runs[i]; value <= runs[i + 1]; value++) {
+          action.accept(high | value);
+        }
+      }
+    }
+
+    @Override
+    long[] toWords() {
+      long[] words = new long[WORDS];
+      for (int i = 0; i < runs.length; i += 2) {
+        int from = runs[i];
+        int to = runs[i + 1] + 1;
+        int first = from >>> 6;
+        int last = (to - 1) >>> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> -to;
+        if (first == last) {
+          words[first] |= firstMask & lastMask;
+        } else {
+          words[first] |= firstMask;
+          Arrays.fill(words, first + 1, last, -1L);
+          words[last] |= lastMask;
+        }
+      }
+      return words;
+    }
+  }
+}
@@ -0,0 +1,156 @@
+package com.google;
+
+/**
+ * A persistent vector of ints, such as ordinals or a value per ordinal: a trie of 32-wide nodes
+ * whose leaves hold the values, read in a few array loads.
+ *
+ * <p>A vector never changes once built. An {@link Editor} makes a batch of changes and builds a
+ * new vector that shares every node off the paths to the indexes it set; it copies each node the
+ * first time it changes it and changes its own copies in place after that. Missing nodes read as
+ * zeros, so a vector indexed by ordinal only takes space where values were set.
+ */
+final class OrdinalVector {
+
+  private static final int BITS = 5;
+  private static final int WIDTH = 1 << BITS;
+  private static final int MASK = WIDTH - 1;
+
+  static final OrdinalVector EMPTY = new OrdinalVector(null, 0, 0);
+
+  /** The root, or null if every value is zero. */
+  private final Node root;
+  /** The shift of the root's level; 0 when the root is a leaf. */
+  private final int shift;
+  private final int size;
+
+  private OrdinalVector(Node root, int shift, int size) {
+    this.root = root;
+    this.shift = shift;
+    this.size = size;
+  }
+
+  int size() {
+    return size;
+  }
+
+  int get(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of " + size);
+    }
+    return valueAt(root, shift, index);
+  }
+
+  /** Returns a vector with the value at the index set, growing it with zeros if needed. */
+  OrdinalVector with(int index, int value) {
+    Editor editor = edit();
+    editor.set(index, value);
+    return editor.build();
+  }
+
+  /** Starts a batch of changes to this vector. */
+  Editor edit() {
+    return new Editor(this);
+  }
+
+  private static int valueAt(Node node, int shift, int index) {
+    for (int level = shift; level > 0 && node != null; level -= BITS) {
+      node = node.children[(index >>> level) & MASK];
+    }
+    return node == null ? 0 : node.values[index & MASK];
+  }
+
+  /** A trie node: a branch with children, or a leaf with values. */
+  private static final class Node {
+
+    /** The token of the editor that may change this node in place. */
+    final Object owner;
+    final Node[] children;
+    final int[] values;
+
+    Node(Object owner, Node[] children, int[] values) {
+      this.owner = owner;
+      this.children = children;
+      this.values = values;
+    }
+  }
+
+  /** Changes to a vector for one writer. The editor must not be used once it has built. */
+  static final class Editor {
+
+    private Object owner = new Object();
+    private Node root;
+    private int shift;
+    private int size;
+
+    private Editor(OrdinalVector vector) {
+      this.root = vector.root;
+      this.shift = vector.shift;
+      this.size = vector.size;
+    }
+
+    int size() {
+      return size;
+    }
+
+    int get(int index) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("Index " + index + " out of " + size);
+      }
+      return valueAt(root, shift, index);
+    }
+
+    /** Sets the value at the index, growing the vector with zeros if needed. */
+    void set(int index, int value) {
+      if (owner == null) {
+        throw new IllegalStateException("The editor has already built its vector");
+      }
+      if (index < 0) {
+        throw new IndexOutOfBoundsException("Index " + index);
+      }
+      while ((index >>> shift) >= WIDTH) {
+        if (root != null) {
+          Node[] children = new Node[WIDTH];
+          children[0] = root;
+          root = new Node(owner, children, null);
+        }
+        shift += BITS;
+      }
+      root = set(root, shift, index, value);
+      size = Math.max(size, index + 1);
+    }
+
+    /** Appends a value. */
+    void add(int value) {
+      set(size, value);
+    }
+
+    /** Removes the last value and returns it. */
+    int removeLast() {
+      int last = get(size - 1);
+      set(size - 1, 0);
+      size--;
+      return last;
+    }
+
+    OrdinalVector build() {
+      owner = null;
+      return new OrdinalVector(root, shift, size);
+    }
+
+    private Node set(Node node, int level, int index, int value) {
+      if (level == 0) {
+        Node leaf = node == null
+            ? new Node(owner, null, new int[WIDTH])
+            : node.owner == owner ? node : new Node(owner, null, node.values.clone());
+        leaf.values[index & MASK] = value;
+        return leaf;
+      }
+      Node branch = node == null
+          ? new Node(owner, new Node[WIDTH], null)
+          : node.owner == owner ? node : new Node(owner, node.children.clone(), null);
+      int child = (index >>> level) & MASK;
+      branch.children[child] = set(branch.children[child], level - BITS, index, value);
+      return branch;
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package com.google;
+
+import java.io.PrintStream;
+
+/**
+ * Where a {@link VideoPlayer} writes the lines it shows the user. Nothing written need reach the
+ * user before {@link #flush} is called, which happens once per command and before the player
+ * waits for input.
+ */
+interface OutputSink {
+
+  /** Writes text without ending the line. */
+  void print(String text);
+
+  /** Writes a line. */
+  void println(String line);
+
+  /** Sends everything written so far on to the user. */
+  void flush();
+
+  /** Returns a sink that writes straight through to the stream, for callers that never flush. */
+  static OutputSink writingTo(PrintStream stream) {
+    return new OutputSink() {
+      @Override
+      public void print(String text) {
+        stream.print(text);
+      }
+
+      @Override
+      public void println(String line) {
+        stream.println(line);
+      }
+
+      @Override
+      public void flush() {
+        stream.flush();
+      }
+    };
+  }
+}
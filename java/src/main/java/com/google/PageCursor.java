@@ -0,0 +1,79 @@
+package com.google;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Where a page of a title-ordered video listing ended, so that the next page can pick up there.
+ *
+ * <p>A cursor names the listing (all videos, or a search and its term), the handle of the
+ * {@link RetainedResults} result it pages through and the position reached in it, the title and
+ * id of the last video shown and how many videos were shown before the next page, and travels as
+ * an opaque URL-safe token. Resuming continues at that position in the retained result; if the
+ * result is gone, the query runs again and the last video's place is found by its title order
+ * rather than by an offset, so pages neither skip nor repeat videos when the catalog changes
+ * between them, even if that video has been removed or its record has moved to another store.
+ */
+final class PageCursor {
+
+  /** The listings that can be paged through. */
+  enum Listing {
+    ALL,
+    TITLE_SEARCH,
+    TAG_SEARCH
+  }
+
+  private static final char SEPARATOR = '\n';
+
+  final Listing listing;
+  final String query;
+  /** Handle of the retained result the cursor pages through. */
+  final long handle;
+  /** Position in the retained result after the last video shown. */
+  final int index;
+  /** Title of the last video shown. */
+  final String afterTitle;
+  /** Id of the last video shown. */
+  final String afterId;
+  /** Number of videos shown so far. */
+  final int shown;
+
+  PageCursor(Listing listing, String query, long handle, int index, String afterTitle,
+      String afterId, int shown) {
+    this.listing = listing;
+    this.query = query;
+    this.handle = handle;
+    this.index = index;
+    this.afterTitle = afterTitle;
+    this.afterId = afterId;
+    this.shown = shown;
+  }
+
+  String encode() {
+    String state = listing.name() + SEPARATOR + shown + SEPARATOR + handle + SEPARATOR + index
+        + SEPARATOR + afterId + SEPARATOR + afterTitle + SEPARATOR + query;
+    return Base64.getUrlEncoder().withoutPadding()
+        .encodeToString(state.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Decodes a token made by {@link #encode}.
+   *
+   * @throws IllegalArgumentException if the token is not a cursor
+   */
+  static PageCursor decode(String token) {
+    String state = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+    String[] fields = state.split(String.valueOf(SEPARATOR), 7);
+    if (fields.length != 7) {
+      throw new IllegalArgumentException("Not a page cursor: " + token);
+    }
+    int shown = Integer.parseInt(fields[1]);
+    long handle = Long.parseLong(fields[2]);
+    int index = Integer.parseInt(fields[3]);
+    if (shown < 0 || handle < 0 || index < 0) {
+      throw new IllegalArgumentException("Not a page cursor: " + token);
+    }
+    return new PageCursor(Listing.valueOf(fields[0]), fields[6], handle, index, fields[5],
+        fields[4], shown);
+  }
+}
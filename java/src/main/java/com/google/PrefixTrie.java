@@ -0,0 +1,262 @@
+package com.google;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable radix tree from strings to sets of video ordinals that completes prefixes, part of
+ * a {@link CatalogVersion}.
+ *
+ * <p>Each edge is labelled with a whole run of characters, so a node exists only where keys
+ * branch or end. A key is in the trie while its set of ordinals is not empty, so completions can
+ * be checked against the videos they came from (and those read from the store) rather than
+ * returned as bare keys. {@link #put} copies only the nodes on the key's path and shares the rest
+ * of the tree with the original, so a catalog edit updates the trie in time proportional to the
+ * length of the keys it changes.
+ */
+final class PrefixTrie {
+
+  static final PrefixTrie EMPTY = new PrefixTrie(Node.EMPTY);
+
+  /** Receives the keys completing a prefix, with their ordinals, in lexical order. */
+  interface Completions {
+    /** Takes one key and its ordinals; returns false to stop the completion there. */
+    boolean accept(String key, OrdinalBitmap ordinals);
+  }
+
+  private final Node root;
+
+  private PrefixTrie(Node root) {
+    this.root = root;
+  }
+
+  /** Returns the ordinals stored under the key, or an empty bitmap if it is not in the trie. */
+  OrdinalBitmap get(String key) {
+    Node node = root;
+    int matched = 0;
+    while (matched < key.length()) {
+      int index = node.childIndex(key.charAt(matched));
+      if (index < 0 || !key.startsWith(node.labels[index], matched)) {
+        return OrdinalBitmap.EMPTY;
+      }
+      matched += node.labels[index].length();
+      node = node.children[index];
+    }
+    return node.ordinals;
+  }
+
+  /** Returns a trie with the key mapped to the ordinals, or without the key if they are empty. */
+  PrefixTrie put(String key, OrdinalBitmap ordinals) {
+    Node node = root.put(key, 0, ordinals);
+    return node == root ? this : new PrefixTrie(node == null ? Node.EMPTY : node);
+  }
+
+  /**
+   * Passes the keys starting with the prefix to the completions, in lexical order, until they ask
+   * to stop. Only the part of the tree holding the keys passed is visited.
+   */
+  void complete(String prefix, Completions completions) {
+    Node node = root;
+    StringBuilder key = new StringBuilder();
+    int matched = 0;
+    while (matched < prefix.length()) {
+      int index = node.childIndex(prefix.charAt(matched));
+      if (index < 0) {
+        return;
+      }
+      String label = node.labels[index];
+      int common = commonPrefix(label, prefix, matched);
+      if (common < label.length() && matched + common < prefix.length()) {
+        return;
+      }
+      key.append(label);
+      matched += common;
+      node = node.children[index];
+    }
+    collect(node, key, completions);
+  }
+
+  /** Passes the keys of the subtree to the completions; returns false once they asked to stop. */
+  private static boolean collect(Node node, StringBuilder key, Completions completions) {
+    if (!node.ordinals.isEmpty() && !completions.accept(key.toString(), node.ordinals)) {
+      return false;
+    }
+    for (int i = 0; i < node.labels.length; i++) {
+      int length = key.length();
+      key.append(node.labels[i]);
+      boolean more = collect(node.children[i], key, completions);
+      key.setLength(length);
+      if (!more) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the keys within the given Levenshtein distance of the word. The tree is walked with
+   * one row of the edit distance table per character of the path, and a branch is abandoned as
+   * soon as every entry of its row exceeds the distance, so only paths that can still lead to a
+   * close key are visited.
+   */
+  List<String> withinDistance(String word, int maxDistance) {
+    List<String> keys = new ArrayList<>();
+    int[] row = new int[word.length() + 1];
+    for (int i = 0; i < row.length; i++) {
+      row[i] = i;
+    }
+    collectWithin(root, new StringBuilder(), row, word, maxDistance, keys);
+    return keys;
+  }
+
+  private static void collectWithin(Node node, StringBuilder key, int[] row, String word,
+      int maxDistance, List<String> keys) {
+    if (!node.ordinals.isEmpty() && row[word.length()] <= maxDistance) {
+      keys.add(key.toString());
+    }
+    for (int i = 0; i < node.labels.length; i++) {
+      String label = node.labels[i];
+      int length = key.length();
+      int[] current = row;
+      boolean reachable = true;
+      for (int c = 0; c < label.length() && reachable; c++) {
+        current = nextRow(current, label.charAt(c), word);
+        reachable = min(current) <= maxDistance;
+      }
+      if (reachable) {
+        key.append(label);
+        collectWithin(node.children[i], key, current, word, maxDistance, keys);
+        key.setLength(length);
+      }
+    }
+  }
+
+  /** Returns the edit distances of the word's prefixes to the path extended by c. */
+  private static int[] nextRow(int[] row, char c, String word) {
+    int[] next = new int[row.length];
+    next[0] = row[0] + 1;
+    for (int j = 1; j < row.length; j++) {
+      int substitution = row[j - 1] + (word.charAt(j - 1) == c ? 0 : 1);
+      next[j] = Math.min(substitution, Math.min(row[j], next[j - 1]) + 1);
+    }
+    return next;
+  }
+
+  private static int min(int[] row) {
+    int min = row[0];
+    for (int distance : row) {
+      min = Math.min(min, distance);
+    }
+    return min;
+  }
+
+  /** Returns the length of the common prefix of label and key.substring(from). */
+  private static int commonPrefix(String label, String key, int from) {
+    int length = Math.min(label.length(), key.length() - from);
+    int i = 0;
+    while (i < length && label.charAt(i) == key.charAt(from + i)) {
+      i++;
+    }
+    return i;
+  }
+
+  /** A node of the tree; its edges are sorted by their first character, which they don't share. */
+  private static final class Node {
+
+    static final Node EMPTY = new Node(new String[0], new Node[0], OrdinalBitmap.EMPTY);
+
+    final String[] labels;
+    final Node[] children;
+    /** The ordinals of the key ending at this node, empty if no key does. */
+    final OrdinalBitmap ordinals;
+
+    Node(String[] labels, Node[] children, OrdinalBitmap ordinals) {
+      this.labels = labels;
+      this.children = children;
+      this.ordinals = ordinals;
+    }
+
+    int childIndex(char first) {
+      int low = 0;
+      int high = labels.length - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        char c = labels[mid].charAt(0);
+        if (c < first) {
+          low = mid + 1;
+        } else if (c > first) {
+          high = mid - 1;
+        } else {
+          return mid;
+        }
+      }
+      return -(low + 1);
+    }
+
+    /**
+     * Returns the node with the key mapped to the ordinals, or without the key if they are empty;
+     * null if nothing would be left.
+     */
+    Node put(String key, int from, OrdinalBitmap value) {
+      if (from == key.length()) {
+        return value.isEmpty() && labels.length == 0 ? null : new Node(labels, children, value);
+      }
+      int index = childIndex(key.charAt(from));
+      if (index < 0) {
+        if (value.isEmpty()) {
+          return this;
+        }
+        int at = -(index + 1);
+        Node leaf = new Node(EMPTY.labels, EMPTY.children, value);
+        return new Node(
+            insert(labels, at, key.substring(from)), insert(children, at, leaf), ordinals);
+      }
+      String label = labels[index];
+      int common = commonPrefix(label, key, from);
+      if (common < label.length()) {
+        if (value.isEmpty()) {
+          return this;
+        }
+        Node split = new Node(new String[] {label.substring(common)},
+            new Node[] {children[index]}, OrdinalBitmap.EMPTY);
+        return replace(index, label.substring(0, common), split.put(key, from + common, value));
+      }
+      Node child = children[index].put(key, from + common, value);
+      if (child == children[index]) {
+        return this;
+      }
+      if (child == null) {
+        if (ordinals.isEmpty() && labels.length == 1) {
+          return null;
+        }
+        return new Node(delete(labels, index), delete(children, index), ordinals);
+      }
+      if (child.ordinals.isEmpty() && child.labels.length == 1) {
+        return replace(index, label + child.labels[0], child.children[0]);
+      }
+      return replace(index, label, child);
+    }
+
+    private Node replace(int index, String label, Node child) {
+      String[] newLabels = labels.clone();
+      Node[] newChildren = children.clone();
+      newLabels[index] = label;
+      newChildren[index] = child;
+      return new Node(newLabels, newChildren, ordinals);
+    }
+
+    private static <T> T[] insert(T[] array, int at, T element) {
+      T[] result = Arrays.copyOf(array, array.length + 1);
+      System.arraycopy(array, at, result, at + 1, array.length - at);
+      result[at] = element;
+      return result;
+    }
+
+    private static <T> T[] delete(T[] array, int at) {
+      T[] result = Arrays.copyOf(array, array.length - 1);
+      System.arraycopy(array, at + 1, result, at, array.length - at - 1);
+      return result;
+    }
+  }
+}
@@ -0,0 +1,224 @@
+package com.google;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+
+/**
+ * A bounded cache of search results, keyed by normalised query and evicting the least recently
+ * used entry when full.
+ *
+ * <p>Each entry keeps the bitmap of the videos its query matches, flagged or not. When the store
+ * publishes a version, an entry is dropped only if that bitmap shares a video with the ones the
+ * version removed, flagged or allowed, or if a video the version added matches the query. The
+ * first test is a bitmap intersection that allocates nothing. For the second, entries are indexed
+ * by a feature every video they can match has: a tag for tag queries and the first trigram of the
+ * term for title queries, so an added video is only checked against the entries under its own tags
+ * and title trigrams, plus the few queries too short to have a trigram. A result is cached only if
+ * the version it was computed from is still current, so a result racing with a write can never
+ * outlive that write's invalidation. Results are ordinals of the store their version is over, so
+ * when the catalog is compacted into a successor store every entry goes.
+ */
+final class QueryCache {
+
+  static final int DEFAULT_CAPACITY = 1024;
+
+  private static final int GRAM = 3;
+
+  private final CatalogVersions versions;
+  /** The store the cached ordinals belong to. */
+  private VideoStore store;
+  private final LinkedHashMap<String, Entry> entries;
+  /** The entries whose query only matches videos with a given feature. */
+  private final Map<String, Set<Entry>> byFeature = new HashMap<>();
+  /** The entries whose query has no feature, checked against every added video. */
+  private final Set<Entry> unindexed = new HashSet<>();
+  private long hits;
+  private long misses;
+  private long evictions;
+  private long invalidations;
+
+  QueryCache(CatalogVersions versions, int capacity) {
+    this.versions = versions;
+    this.store = versions.current().store;
+    this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        if (size() > capacity) {
+          unindex(eldest.getValue());
+          evictions++;
+          return true;
+        }
+        return false;
+      }
+    };
+    versions.addPublishListener(this::invalidate);
+  }
+
+  /** Returns the feature of every video whose folded title contains the folded term, if any. */
+  static String titleFeature(String term) {
+    return term.length() < GRAM ? null : "trigram:" + term.substring(0, GRAM);
+  }
+
+  /** Returns the feature of every video with the tag. */
+  static String tagFeature(String tag) {
+    return "tag:" + tag;
+  }
+
+  /**
+   * Returns the cached result of a query, or runs the search on the given version and caches its
+   * result if that version is still current. The result holds ordinals of the version's store, in
+   * title order, of the playable videos the query matches.
+   *
+   * @param version the version the caller reads
+   * @param key the normalised query
+   * @param feature a feature of every video the query matches, or null if there is none
+   * @param matches tells whether the video with a given ordinal matches the query, ignoring flags
+   * @param search returns the videos of a version the query matches, ignoring flags
+   */
+  int[] get(CatalogVersion version, String key, String feature, IntPredicate matches,
+      Function<CatalogVersion, OrdinalBitmap> search) {
+    synchronized (this) {
+      Entry entry = store == version.store ? entries.get(key) : null;
+      if (entry != null) {
+        hits++;
+        return entry.ordinals;
+      }
+      misses++;
+    }
+    OrdinalBitmap matched = search.apply(version);
+    int[] ordinals = version.inTitleOrder(matched.and(version.playable()));
+    synchronized (this) {
+      if (versions.current() == version) {
+        Entry entry = new Entry(key, feature, matches, matched, ordinals);
+        Entry replaced = entries.put(key, entry);
+        if (replaced != null) {
+          unindex(replaced);
+        }
+        if (feature == null) {
+          unindexed.add(entry);
+        } else {
+          byFeature.computeIfAbsent(feature, k -> new HashSet<>()).add(entry);
+        }
+      }
+    }
+    return ordinals;
+  }
+
+  private synchronized void invalidate(CatalogVersion version) {
+    if (version.store != store) {
+      invalidations += entries.size();
+      entries.clear();
+      byFeature.clear();
+      unindexed.clear();
+      store = version.store;
+      return;
+    }
+    if (entries.isEmpty()) {
+      return;
+    }
+    List<Entry> stale = new ArrayList<>();
+    for (Entry entry : entries.values()) {
+      if (entry.matched.intersects(version.changed)) {
+        stale.add(entry);
+      }
+    }
+    version.added.forEach(ordinal -> {
+      for (Entry entry : unindexed) {
+        if (entry.matches.test(ordinal)) {
+          stale.add(entry);
+        }
+      }
+      for (String feature : featuresOf(ordinal)) {
+        for (Entry entry : byFeature.getOrDefault(feature, Set.of())) {
+          if (entry.matches.test(ordinal)) {
+            stale.add(entry);
+          }
+        }
+      }
+    });
+    for (Entry entry : stale) {
+      if (entries.remove(entry.key, entry)) {
+        unindex(entry);
+        invalidations++;
+      }
+    }
+  }
+
+  /** Returns the tags and the title trigrams of a video. */
+  private Set<String> featuresOf(int ordinal) {
+    Set<String> features = new HashSet<>();
+    TagDictionary tags = store.getTagDictionary();
+    for (int i = 0, count = store.tagCount(ordinal); i < count; i++) {
+      features.add(tagFeature(tags.tag(store.tagId(ordinal, i))));
+    }
+    String title = store.getFoldedTitle(ordinal);
+    for (int i = 0; i + GRAM <= title.length(); i++) {
+      features.add(titleFeature(title.substring(i, i + GRAM)));
+    }
+    return features;
+  }
+
+  private void unindex(Entry entry) {
+    if (entry.feature == null) {
+      unindexed.remove(entry);
+      return;
+    }
+    Set<Entry> indexed = byFeature.get(entry.feature);
+    indexed.remove(entry);
+    if (indexed.isEmpty()) {
+      byFeature.remove(entry.feature);
+    }
+  }
+
+  synchronized Stats stats() {
+    return new Stats(entries.size(), hits, misses, evictions, invalidations);
+  }
+
+  private static final class Entry {
+    final String key;
+    final String feature;
+    final IntPredicate matches;
+    /** The videos the query matched when cached, flagged or not. */
+    final OrdinalBitmap matched;
+    final int[] ordinals;
+
+    Entry(String key, String feature, IntPredicate matches, OrdinalBitmap matched,
+        int[] ordinals) {
+      this.key = key;
+      this.feature = feature;
+      this.matches = matches;
+      this.matched = matched;
+      this.ordinals = ordinals;
+    }
+  }
+
+  /** A snapshot of the cache's counters. */
+  static final class Stats {
+    final int size;
+    final long hits;
+    final long misses;
+    final long evictions;
+    final long invalidations;
+
+    Stats(int size, long hits, long misses, long evictions, long invalidations) {
+      this.size = size;
+      this.hits = hits;
+      this.misses = misses;
+      this.evictions = evictions;
+      this.invalidations = invalidations;
+    }
+
+    @Override
+    public String toString() {
+      return size + " cached, " + hits + " hits, " + misses + " misses, " + evictions
+          + " evictions, " + invalidations + " invalidations";
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Caches the display line of each stored video: "title (video_id) [tags]", followed by the flag
+ * reason if the video is flagged.
+ *
+ * <p>Stored records never change, so a line only goes stale when its video's flag state does.
+ * Every cached line remembers the flag reason it was rendered with and is re-rendered when asked
+ * for with a different one. Lines of videos a published version changed are dropped eagerly, so
+ * removed videos do not keep theirs. Each store has its own cache, which goes with it once the
+ * catalog has moved on to a successor store.
+ *
+ * <p>The cache takes no lock to read or fill a slot. Lines are immutable, so a reader sees either
+ * a complete line or none; two threads rendering the same line at once just both render it.
+ */
+final class RenderedLines {
+
+  private final VideoStore store;
+  private volatile Line[] lines = new Line[64];
+
+  RenderedLines(VideoStore store) {
+    this.store = store;
+  }
+
+  /** Returns the display line of the video with the given ordinal and flag reason (or null). */
+  String line(int ordinal, String reason) {
+    Line[] current = lines;
+    Line cached = ordinal < current.length ? current[ordinal] : null;
+    if (cached != null && Objects.equals(cached.reason, reason)) {
+      return cached.text;
+    }
+    Line rendered = new Line(reason, render(ordinal, reason));
+    if (ordinal >= current.length) {
+      current = grow(ordinal);
+    }
+    current[ordinal] = rendered;
+    return rendered.text;
+  }
+
+  /** Drops the lines of the videos a newly published version changed. */
+  void forget(CatalogVersion version) {
+    Line[] current = lines;
+    version.changed.forEach(ordinal -> {
+      if (ordinal < current.length) {
+        current[ordinal] = null;
+      }
+    });
+  }
+
+  private synchronized Line[] grow(int ordinal) {
+    if (ordinal >= lines.length) {
+      lines = Arrays.copyOf(lines, Math.max(ordinal + 1, lines.length * 2));
+    }
+    return lines;
+  }
+
+  private String render(int ordinal, String reason) {
+    StringBuilder text = new StringBuilder()
+        .append(store.getTitle(ordinal))
+        .append(" (")
+        .append(store.getVideoId(ordinal))
+        .append(") [");
+    TagDictionary tags = store.getTagDictionary();
+    for (int i = 0, count = store.tagCount(ordinal); i < count; i++) {
+      if (i > 0) {
+        text.append(' ');
+      }
+      text.append(tags.tag(store.tagId(ordinal, i)));
+    }
+    text.append(']');
+    if (reason != null) {
+      text.append(" - FLAGGED (reason: ").append(reason).append(')');
+    }
+    return text.toString();
+  }
+
+  private static final class Line {
+    final String reason;
+    final String text;
+
+    Line(String reason, String text) {
+      this.reason = reason;
+      this.text = text;
+    }
+  }
+}
@@ -0,0 +1,152 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The listings that pages are being handed out from, kept so that a next page resumes from the
+ * same result without running its query again.
+ *
+ * <p>A listing is the ordinals a query returned on one catalog version, in title order. It is
+ * registered under a handle the first time a page of it hands out a cursor, and the cursor carries
+ * the handle and its position in the listing. Only the ordinals are kept, not the version they
+ * came from: they stay readable through any later version over the same store, whose records are
+ * only ever appended, so pages of a retained listing show the videos it held when the first page
+ * was made. When the catalog is compacted into a successor store, every listing goes, so none
+ * keeps an old store alive. The registry also holds a bounded number of listings and forgets the
+ * least recently paged one when full. A cursor whose listing is gone falls back to running the
+ * query on the current version and finding its place there by title.
+ */
+final class RetainedResults {
+
+  static final int DEFAULT_CAPACITY = 256;
+
+  private final LinkedHashMap<Long, Result> results;
+  /** The store the retained ordinals belong to. */
+  private VideoStore store;
+  private long nextHandle = 1;
+
+  /** Creates an empty registry that forgets its listings when the versions are compacted. */
+  RetainedResults(CatalogVersions versions, int capacity) {
+    this.results = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, Result> eldest) {
+        return size() > capacity;
+      }
+    };
+    this.store = versions.current().store;
+    versions.addPublishListener(this::published);
+  }
+
+  /**
+   * Registers the result, which holds ordinals of the given store, if it is not yet, and returns
+   * its handle. Returns 0 and registers nothing if the store has been compacted away meanwhile.
+   */
+  synchronized long retain(VideoStore resultStore, Result result) {
+    if (resultStore != store) {
+      return 0;
+    }
+    if (result.handle == 0) {
+      result.materialize();
+      result.handle = nextHandle++;
+      results.put(result.handle, result);
+    }
+    return result.handle;
+  }
+
+  /**
+   * Returns the retained result the cursor pages through, or null if it is gone, the cursor was
+   * not made from it, or its ordinals are not of the given store.
+   */
+  synchronized Result get(VideoStore resultStore, PageCursor cursor) {
+    if (resultStore != store) {
+      return null;
+    }
+    Result result = results.get(cursor.handle);
+    return result != null && result.resumes(store, cursor) ? result : null;
+  }
+
+  /** Forgets every result once the catalog moves to another store. */
+  private synchronized void published(CatalogVersion version) {
+    if (version.store != store) {
+      results.clear();
+      store = version.store;
+    }
+  }
+
+  /** The ordinals a listing's query returned on one catalog version, in title order. */
+  static final class Result {
+    final PageCursor.Listing listing;
+    final String query;
+    /** The ordinals, or null while they are read from {@link #titleOrder}. */
+    private int[] ordinals;
+    /** A version's whole title order, until the result is retained, or null. */
+    private TitleOrder titleOrder;
+    /** The handle the result is registered under, or 0 if it is not. */
+    private long handle;
+
+    Result(PageCursor.Listing listing, String query, int[] ordinals) {
+      this.listing = listing;
+      this.query = query;
+      this.ordinals = ordinals;
+    }
+
+    /**
+     * Creates the result holding a version's whole title order. The order is only copied out
+     * when the result is retained, so a listing that fits on one page never copies it.
+     */
+    Result(PageCursor.Listing listing, String query, TitleOrder titleOrder) {
+      this.listing = listing;
+      this.query = query;
+      this.titleOrder = titleOrder;
+    }
+
+    int size() {
+      return ordinals == null ? titleOrder.size() : ordinals.length;
+    }
+
+    /** Returns the ordinals from position from (inclusive) to to (exclusive). */
+    int[] ordinals(int from, int to) {
+      return ordinals == null
+          ? titleOrder.toArray(from, to)
+          : Arrays.copyOfRange(ordinals, from, to);
+    }
+
+    /** Copies the title order out, so that the result no longer refers to its version. */
+    private void materialize() {
+      if (ordinals == null) {
+        ordinals = titleOrder.toArray();
+        titleOrder = null;
+      }
+    }
+
+    /**
+     * Returns the position just after the video with the given title and id would be. The
+     * ordinals are of the given store.
+     */
+    int indexAfter(VideoStore store, String title, String videoId) {
+      if (ordinals == null) {
+        return titleOrder.countUpTo(title, videoId);
+      }
+      int from = 0;
+      int to = ordinals.length;
+      while (from < to) {
+        int mid = (from + to) >>> 1;
+        if (store.compareTitleOrder(ordinals[mid], title, videoId) <= 0) {
+          from = mid + 1;
+        } else {
+          to = mid;
+        }
+      }
+      return from;
+    }
+
+    /** Checks that the cursor was made from this result: same query, and its last video here. */
+    private boolean resumes(VideoStore store, PageCursor cursor) {
+      return listing == cursor.listing && query.equals(cursor.query) && cursor.index > 0
+          && cursor.index <= size() && store.videoIdEquals(ordinals[cursor.index - 1],
+              cursor.afterId);
+    }
+  }
+}
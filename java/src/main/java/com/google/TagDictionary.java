@@ -0,0 +1,59 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary of a {@link VideoStore} that interns each distinct tag once and gives it a dense int
+ * id.
+ *
+ * <p>Ids are never reused, so an id held by a video stays valid for the dictionary's lifetime.
+ * Tags of removed videos are dropped when the catalog is compacted into a successor store, which
+ * starts a dictionary of its own. Interning is safe from several threads, which lets catalog
+ * chunks be parsed in parallel.
+ */
+class TagDictionary {
+
+  /** Returned by {@link #lookup} for tags that have never been interned. */
+  static final int NO_TAG = -1;
+
+  private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+  private volatile String[] tags = new String[16];
+  private int size;
+
+  /** Returns the id of the tag, assigning the next free id if the tag is new. */
+  int intern(String tag) {
+    Integer id = ids.get(tag);
+    if (id != null) {
+      return id;
+    }
+    synchronized (this) {
+      id = ids.get(tag);
+      if (id == null) {
+        if (size == tags.length) {
+          tags = Arrays.copyOf(tags, size * 2);
+        }
+        id = size++;
+        tags[id] = tag;
+        ids.put(tag, id);
+      }
+      return id;
+    }
+  }
+
+  /** Returns the id of the tag, or NO_TAG if it has never been interned. */
+  int lookup(String tag) {
+    Integer id = ids.get(tag);
+    return id == null ? NO_TAG : id;
+  }
+
+  /** Returns the tag with the given id. */
+  String tag(int id) {
+    return tags[id];
+  }
+
+  /** Returns the number of interned tags; ids run from 0 to size() - 1. */
+  int size() {
+    return ids.size();
+  }
+}
@@ -0,0 +1,103 @@
+package com.google;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A boolean query over video tags, such as {@code #cat AND #animal NOT #google}.
+ *
+ * <p>A query is one or more clauses joined by OR. A clause is a list of tags, each joined to the
+ * previous one by AND (which may be left out) or by NOT or AND NOT, both meaning "and not"; a
+ * clause may also start with NOT. Operators are not case sensitive and AND binds tighter than OR,
+ * so {@code #a OR #b NOT #c} is {@code #a OR (#b AND NOT #c)}.
+ *
+ * <p>A query is evaluated on the tag posting lists of a {@link CatalogVersion}. Within a clause
+ * the included tags are intersected from the rarest up, stopping as soon as nothing is left, and
+ * the excluded tags are subtracted from what remains.
+ */
+final class TagQuery {
+
+  private final List<Clause> clauses;
+
+  private TagQuery(List<Clause> clauses) {
+    this.clauses = clauses;
+  }
+
+  /**
+   * Parses a query.
+   *
+   * @throws IllegalArgumentException if the query is empty, or an operator is not followed by a tag
+   */
+  static TagQuery parse(String query) {
+    List<Clause> clauses = new ArrayList<>();
+    Clause clause = new Clause();
+    String operator = null;
+    for (String token : query.trim().split("\\s+")) {
+      String upper = token.toUpperCase(Locale.ROOT);
+      if (upper.equals("NOT") && "AND".equals(operator)) {
+        operator = upper;
+      } else if (upper.equals("AND") || upper.equals("OR") || upper.equals("NOT")) {
+        if (operator != null || (clause.isEmpty() && !upper.equals("NOT"))) {
+          throw new IllegalArgumentException("Expected a tag before " + upper);
+        }
+        if (upper.equals("OR")) {
+          clauses.add(clause);
+          clause = new Clause();
+        } else {
+          operator = upper;
+        }
+      } else if (!token.isEmpty()) {
+        String tag = token.toLowerCase(Locale.ROOT);
+        if ("NOT".equals(operator)) {
+          clause.excluded.add(tag);
+        } else {
+          clause.included.add(tag);
+        }
+        operator = null;
+      }
+    }
+    if (operator != null || clause.isEmpty()) {
+      throw new IllegalArgumentException("Expected a tag at the end of the query");
+    }
+    clauses.add(clause);
+    return new TagQuery(clauses);
+  }
+
+  /** Returns the videos of the version matching the query, flagged or not. */
+  OrdinalBitmap evaluate(CatalogVersion version, TagDictionary tags) {
+    OrdinalBitmap result = OrdinalBitmap.EMPTY;
+    for (Clause clause : clauses) {
+      result = result.or(clause.evaluate(version, tags));
+    }
+    return result;
+  }
+
+  /** Tags that must all be present and tags that must all be absent. */
+  private static final class Clause {
+
+    final List<String> included = new ArrayList<>();
+    final List<String> excluded = new ArrayList<>();
+
+    boolean isEmpty() {
+      return included.isEmpty() && excluded.isEmpty();
+    }
+
+    OrdinalBitmap evaluate(CatalogVersion version, TagDictionary tags) {
+      List<OrdinalBitmap> postings = new ArrayList<>();
+      for (String tag : included) {
+        postings.add(version.tagPostings(tags.lookup(tag)));
+      }
+      postings.sort(Comparator.comparingInt(OrdinalBitmap::cardinality));
+      OrdinalBitmap result = postings.isEmpty() ? version.all() : postings.get(0);
+      for (int i = 1; i < postings.size() && !result.isEmpty(); i++) {
+        result = result.and(postings.get(i));
+      }
+      for (int i = 0; i < excluded.size() && !result.isEmpty(); i++) {
+        result = result.andNot(version.tagPostings(tags.lookup(excluded.get(i))));
+      }
+      return result;
+    }
+  }
+}
@@ -0,0 +1,212 @@
+package com.google;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.regex.Pattern;
+
+/**
+ * An inverted index from the words of video titles and tags to the videos containing them, used
+ * to rank search results with BM25.
+ *
+ * <p>A term's postings are layered by term frequency: layer k holds the videos containing the
+ * term more than k times, so the first layer is the posting list itself and a video's term
+ * frequency is the number of layers holding it. The index also keeps each video's length in words
+ * and the total number of words in the catalog. Scoring a candidate therefore reads a few bits and
+ * one length; titles and tags are only split into words when videos are added or removed. Like the
+ * other indexes of a {@link CatalogVersion} it never changes once built; {@link #edit} shares every
+ * posting list the edit did not touch, and copies just the paths to the changed lengths.
+ */
+final class TermIndex {
+
+  private static final Pattern WORD_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+  /** BM25 term frequency saturation. */
+  private static final double K1 = 1.2;
+  /** BM25 document length normalisation. */
+  private static final double B = 0.75;
+
+  private final VideoStore store;
+  /** For each term, the videos containing it more than k times, for k from 0. */
+  private final HashTrie<String, OrdinalBitmap[]> postings;
+  /** The number of words of each video, by ordinal. */
+  private final OrdinalVector lengths;
+  private final int documents;
+  private final long totalLength;
+
+  /** Creates an empty index. */
+  TermIndex(VideoStore store) {
+    this(store, HashTrie.empty(), OrdinalVector.EMPTY, 0, 0);
+  }
+
+  private TermIndex(VideoStore store, HashTrie<String, OrdinalBitmap[]> postings,
+      OrdinalVector lengths, int documents, long totalLength) {
+    this.store = store;
+    this.postings = postings;
+    this.lengths = lengths;
+    this.documents = documents;
+    this.totalLength = totalLength;
+  }
+
+  /** Returns the words of a folded text, in order and with repeats. */
+  static List<String> words(String folded) {
+    List<String> words = new ArrayList<>();
+    for (String word : WORD_SEPARATOR.split(folded)) {
+      if (!word.isEmpty()) {
+        words.add(word);
+      }
+    }
+    return words;
+  }
+
+  /** Returns the words of a video's title followed by those of its tags. */
+  private List<String> termsOf(int ordinal) {
+    List<String> terms = words(store.getFoldedTitle(ordinal));
+    TagDictionary tags = store.getTagDictionary();
+    for (int i = 0, count = store.tagCount(ordinal); i < count; i++) {
+      terms.addAll(words(TitleSearchIndex.fold(tags.tag(store.tagId(ordinal, i)))));
+    }
+    return terms;
+  }
+
+  /** Returns the number of videos containing the term. */
+  int documentFrequency(String term) {
+    OrdinalBitmap[] layers = postings.get(term);
+    return layers == null ? 0 : layers[0].cardinality();
+  }
+
+  /**
+   * Returns an index without the removed videos and with the added ones, sharing the posting
+   * lists of every term the edit does not touch.
+   */
+  TermIndex edit(OrdinalBitmap removed, OrdinalBitmap added) {
+    Map<String, List<OrdinalBitmap.Builder>> changes = new HashMap<>();
+    OrdinalVector.Editor editedLengths = lengths.edit();
+    long[] length = {totalLength};
+    removed.forEach(ordinal -> {
+      for (String term : termsOf(ordinal)) {
+        changes.computeIfAbsent(term, k -> new ArrayList<>());
+      }
+      length[0] -= lengths.get(ordinal);
+      editedLengths.set(ordinal, 0);
+    });
+    added.forEach(ordinal -> {
+      List<String> terms = termsOf(ordinal);
+      Map<String, Integer> frequencies = new HashMap<>();
+      for (String term : terms) {
+        frequencies.merge(term, 1, Integer::sum);
+      }
+      for (Map.Entry<String, Integer> frequency : frequencies.entrySet()) {
+        List<OrdinalBitmap.Builder> layers =
+            changes.computeIfAbsent(frequency.getKey(), k -> new ArrayList<>());
+        for (int k = 0; k < frequency.getValue(); k++) {
+          if (k == layers.size()) {
+            layers.add(new OrdinalBitmap.Builder());
+          }
+          layers.get(k).add(ordinal);
+        }
+      }
+      length[0] += terms.size();
+      editedLengths.set(ordinal, terms.size());
+    });
+    HashTrie.Editor<String, OrdinalBitmap[]> edited = postings.edit();
+    for (Map.Entry<String, List<OrdinalBitmap.Builder>> change : changes.entrySet()) {
+      OrdinalBitmap[] layers = postings.getOrDefault(change.getKey(), new OrdinalBitmap[0]);
+      List<OrdinalBitmap.Builder> addedLayers = change.getValue();
+      List<OrdinalBitmap> termLayers = new ArrayList<>();
+      for (int k = 0; k < Math.max(layers.length, addedLayers.size()); k++) {
+        OrdinalBitmap layer = k < layers.length ? layers[k].andNot(removed) : OrdinalBitmap.EMPTY;
+        if (k < addedLayers.size()) {
+          layer = layer.or(addedLayers.get(k).build());
+        }
+        if (layer.isEmpty()) {
+          break;
+        }
+        termLayers.add(layer);
+      }
+      if (termLayers.isEmpty()) {
+        edited.remove(change.getKey());
+      } else {
+        edited.put(change.getKey(), termLayers.toArray(new OrdinalBitmap[0]));
+      }
+    }
+    return new TermIndex(store, edited.build(), editedLengths.build(),
+        documents - removed.cardinality() + added.cardinality(), length[0]);
+  }
+
+  /**
+   * Returns the ordinals of the at most limit videos among the given ones that score best for
+   * the query under BM25, best first; equal scores are in title order. Only videos containing a
+   * query term are scored, from their stored term frequencies and lengths, and a heap of the best
+   * limit so far is all that is kept of them.
+   */
+  int[] search(String query, OrdinalBitmap among, int limit) {
+    List<OrdinalBitmap[]> terms = new ArrayList<>();
+    List<Double> weights = new ArrayList<>();
+    OrdinalBitmap candidates = OrdinalBitmap.EMPTY;
+    for (String term : new HashSet<>(words(TitleSearchIndex.fold(query)))) {
+      OrdinalBitmap[] layers = postings.get(term);
+      if (layers != null) {
+        int df = layers[0].cardinality();
+        terms.add(layers);
+        weights.add(Math.log(1 + (documents - df + 0.5) / (df + 0.5)));
+        candidates = candidates.or(layers[0]);
+      }
+    }
+    candidates = candidates.and(among);
+    if (limit <= 0 || candidates.isEmpty()) {
+      return new int[0];
+    }
+    OrdinalBitmap[][] layers = terms.toArray(new OrdinalBitmap[0][]);
+    double[] idf = weights.stream().mapToDouble(Double::doubleValue).toArray();
+    double averageLength = (double) totalLength / documents;
+    PriorityQueue<Scored> best = new PriorityQueue<>(limit + 1);
+    candidates.forEach(ordinal -> {
+      double norm = K1 * (1 - B + B * lengths.get(ordinal) / averageLength);
+      double score = 0;
+      for (int i = 0; i < layers.length; i++) {
+        int tf = 0;
+        while (tf < layers[i].length && layers[i][tf].contains(ordinal)) {
+          tf++;
+        }
+        score += idf[i] * tf * (K1 + 1) / (tf + norm);
+      }
+      if (best.size() < limit || compare(score, ordinal, best.peek()) > 0) {
+        best.add(new Scored(ordinal, score));
+        if (best.size() > limit) {
+          best.poll();
+        }
+      }
+    });
+    int[] ordinals = new int[best.size()];
+    for (int i = ordinals.length - 1; i >= 0; i--) {
+      ordinals[i] = best.poll().ordinal;
+    }
+    return ordinals;
+  }
+
+  /** Orders scored videos worst first: by score, then by reverse title order. */
+  private int compare(double score, int ordinal, Scored other) {
+    int byScore = Double.compare(score, other.score);
+    return byScore != 0 ? byScore : store.compareTitleOrder(other.ordinal, ordinal);
+  }
+
+  /** A video and its score, ordered worst first so the heap can drop the worst. */
+  private final class Scored implements Comparable<Scored> {
+
+    final int ordinal;
+    final double score;
+
+    Scored(int ordinal, double score) {
+      this.ordinal = ordinal;
+      this.score = score;
+    }
+
+    @Override
+    public int compareTo(Scored other) {
+      return compare(score, ordinal, other);
+    }
+  }
+}
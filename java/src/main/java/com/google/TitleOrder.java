@@ -0,0 +1,527 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * The videos of a {@link CatalogVersion} in title order, as defined by
+ * {@link VideoStore#compareTitleOrder}: a persistent B+tree of ordinals whose branches know how
+ * many videos each child holds.
+ *
+ * <p>Finding the video at a position, or how many videos come before a given one, walks a single
+ * path from the root. So does inserting or deleting a video, which copies just that path and
+ * shares the rest of the tree with the version it was edited from. Edits that change a large part
+ * of the catalog, such as a reload, rebuild the tree from the merged order instead.
+ */
+final class TitleOrder {
+
+  private static final int MAX_LEAF = 64;
+  private static final int MAX_CHILDREN = 32;
+  /** Nodes are filled to about this fraction of their maximum when the tree is built in bulk. */
+  private static final double FILL = 0.75;
+  /** An edit of at least size / REBUILD_RATIO videos rebuilds the tree. */
+  private static final int REBUILD_RATIO = 64;
+  /** Sets of k videos are sorted by comparison while k log2 k * SCAN_RATIO is below the size. */
+  private static final int SCAN_RATIO = 8;
+  /** Ranges this short are insertion sorted. */
+  private static final int INSERTION_SORT_LIMIT = 16;
+
+  private final VideoStore store;
+  /** The root, or null if the tree is empty. */
+  private final Node root;
+
+  /** Creates an empty tree. */
+  TitleOrder(VideoStore store) {
+    this(store, null);
+  }
+
+  private TitleOrder(VideoStore store, Node root) {
+    this.store = store;
+    this.root = root;
+  }
+
+  int size() {
+    return root == null ? 0 : root.size();
+  }
+
+  /** Returns the ordinal of the video at the given position. */
+  int get(int index) {
+    if (index < 0 || index >= size()) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of " + size() + " videos");
+    }
+    Node node = root;
+    while (node instanceof Branch) {
+      Branch branch = (Branch) node;
+      int child = branch.childAt(index);
+      index -= branch.start(child);
+      node = branch.children[child];
+    }
+    return ((Leaf) node).ordinals[index];
+  }
+
+  /**
+   * Returns how many videos of the tree come before or at the given one in title order. The video
+   * need not be in the tree; its record just has to be readable.
+   */
+  int countUpTo(int ordinal) {
+    return countWhere(other -> store.compareTitleOrder(other, ordinal) <= 0);
+  }
+
+  /** Returns how many videos of the tree come before or at the given title and id. */
+  int countUpTo(String title, String videoId) {
+    return countWhere(other -> store.compareTitleOrder(other, title, videoId) <= 0);
+  }
+
+  /** Returns the length of the leading run of videos, in title order, that pass the test. */
+  private int countWhere(IntPredicate leading) {
+    int count = 0;
+    Node node = root;
+    while (node instanceof Branch) {
+      Branch branch = (Branch) node;
+      int child = countWhere(branch.firsts, leading) - 1;
+      if (child < 0) {
+        return count;
+      }
+      count += branch.start(child);
+      node = branch.children[child];
+    }
+    return node == null ? 0 : count + countWhere(((Leaf) node).ordinals, leading);
+  }
+
+  /** Returns the length of the leading run of sorted ordinals that pass the test. */
+  private static int countWhere(int[] ordinals, IntPredicate leading) {
+    int low = 0;
+    int high = ordinals.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (leading.test(ordinals[mid])) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  /** Returns the ordinals of the videos at positions from (inclusive) to to (exclusive). */
+  int[] toArray(int from, int to) {
+    int[] ordinals = new int[to - from];
+    if (ordinals.length > 0) {
+      copy(root, from, to, ordinals, 0);
+    }
+    return ordinals;
+  }
+
+  int[] toArray() {
+    return toArray(0, size());
+  }
+
+  /** Passes every ordinal to the action, in title order. */
+  void forEach(IntConsumer action) {
+    if (root != null) {
+      forEach(root, action);
+    }
+  }
+
+  /**
+   * Returns the ordinals of a set of the tree's videos in title order. Small sets are sorted by
+   * comparing titles; for large ones it is cheaper to walk the tree and keep the videos in the
+   * set.
+   */
+  int[] sort(OrdinalBitmap videos) {
+    int count = videos.cardinality();
+    int log = 32 - Integer.numberOfLeadingZeros(count);
+    if ((long) count * log * SCAN_RATIO < size()) {
+      int[] ordinals = videos.toArray();
+      sort(ordinals, store);
+      return ordinals;
+    }
+    int[] ordinals = new int[count];
+    int found = count == 0 ? 0 : collect(root, videos, ordinals, 0);
+    return found == count ? ordinals : Arrays.copyOf(ordinals, found);
+  }
+
+  /**
+   * Returns a tree without the removed videos, which must be in this one, and with the added
+   * videos, which must not be.
+   */
+  TitleOrder edit(OrdinalBitmap removed, OrdinalBitmap added) {
+    int changes = removed.cardinality() + added.cardinality();
+    if (changes == 0) {
+      return this;
+    }
+    if ((long) changes * REBUILD_RATIO >= size()) {
+      return rebuild(removed, added);
+    }
+    Node node = root;
+    for (int ordinal : removed.toArray()) {
+      node = delete(node, ordinal);
+      while (node instanceof Branch && ((Branch) node).children.length == 1) {
+        node = ((Branch) node).children[0];
+      }
+    }
+    for (int ordinal : added.toArray()) {
+      if (node == null) {
+        node = new Leaf(new int[] {ordinal});
+        continue;
+      }
+      Node[] nodes = insert(node, ordinal);
+      node = nodes.length == 1 ? nodes[0] : new Branch(nodes);
+    }
+    return new TitleOrder(store, node);
+  }
+
+  /** Merges the sorted added videos into the kept ones and builds a new tree from the result. */
+  private TitleOrder rebuild(OrdinalBitmap removed, OrdinalBitmap added) {
+    int[] current = toArray();
+    int[] adding = added.toArray();
+    sort(adding, store);
+    int[] merged = new int[current.length + adding.length];
+    int count = 0;
+    int i = 0;
+    int j = 0;
+    while (i < current.length || j < adding.length) {
+      if (i < current.length && removed.contains(current[i])) {
+        i++;
+      } else if (j == adding.length
+          || (i < current.length && store.compareTitleOrder(current[i], adding[j]) < 0)) {
+        merged[count++] = current[i++];
+      } else {
+        merged[count++] = adding[j++];
+      }
+    }
+    return new TitleOrder(store, build(merged, count));
+  }
+
+  /** Builds a tree of the first count ordinals, which are in title order. */
+  private static Node build(int[] ordinals, int count) {
+    if (count == 0) {
+      return null;
+    }
+    Node[] level = new Node[groups(count, MAX_LEAF)];
+    for (int i = 0; i < level.length; i++) {
+      level[i] = new Leaf(Arrays.copyOfRange(ordinals,
+          (int) ((long) count * i / level.length), (int) ((long) count * (i + 1) / level.length)));
+    }
+    while (level.length > 1) {
+      Node[] parents = new Node[groups(level.length, MAX_CHILDREN)];
+      for (int i = 0; i < parents.length; i++) {
+        parents[i] = new Branch(Arrays.copyOfRange(level,
+            level.length * i / parents.length, level.length * (i + 1) / parents.length));
+      }
+      level = parents;
+    }
+    return level[0];
+  }
+
+  /** Returns how many nodes of the given maximum size to spread count entries over in bulk. */
+  private static int groups(int count, int max) {
+    return Math.max(1, (int) Math.ceil(count / (max * FILL)));
+  }
+
+  /** Returns the node after inserting the video, split in two if it overflowed. */
+  private Node[] insert(Node node, int ordinal) {
+    if (node instanceof Leaf) {
+      int[] ordinals = ((Leaf) node).ordinals;
+      int at = upperBound(ordinals, ordinal);
+      int[] result = new int[ordinals.length + 1];
+      System.arraycopy(ordinals, 0, result, 0, at);
+      result[at] = ordinal;
+      System.arraycopy(ordinals, at, result, at + 1, ordinals.length - at);
+      return result.length > MAX_LEAF ? splitLeaf(result) : new Node[] {new Leaf(result)};
+    }
+    Branch branch = (Branch) node;
+    int child = Math.max(0, route(branch, ordinal));
+    Node[] children = replace(branch.children, child, 1, insert(branch.children[child], ordinal));
+    return children.length > MAX_CHILDREN
+        ? splitBranch(children)
+        : new Node[] {new Branch(children)};
+  }
+
+  /** Returns the node after deleting the video, or null if nothing is left of it. */
+  private Node delete(Node node, int ordinal) {
+    if (node instanceof Leaf) {
+      int[] ordinals = ((Leaf) node).ordinals;
+      int at = upperBound(ordinals, ordinal) - 1;
+      if (at < 0 || ordinals[at] != ordinal) {
+        throw new IllegalArgumentException("Video " + ordinal + " is not in the title order");
+      }
+      if (ordinals.length == 1) {
+        return null;
+      }
+      int[] result = new int[ordinals.length - 1];
+      System.arraycopy(ordinals, 0, result, 0, at);
+      System.arraycopy(ordinals, at + 1, result, at, result.length - at);
+      return new Leaf(result);
+    }
+    Branch branch = (Branch) node;
+    Node[] children = branch.children;
+    int child = route(branch, ordinal);
+    if (child < 0) {
+      throw new IllegalArgumentException("Video " + ordinal + " is not in the title order");
+    }
+    Node edited = delete(children[child], ordinal);
+    if (edited == null) {
+      return children.length == 1 ? null : new Branch(replace(children, child, 1, new Node[0]));
+    }
+    if (!edited.isSmall() || children.length == 1) {
+      return new Branch(replace(children, child, 1, new Node[] {edited}));
+    }
+    // Merge the shrunken child with a neighbour, splitting the result again if it is too big.
+    int left = child > 0 ? child - 1 : child;
+    Node first = left == child ? edited : children[left];
+    Node second = left == child ? children[child + 1] : edited;
+    return new Branch(replace(children, left, 2, merge(first, second)));
+  }
+
+  private static Node[] merge(Node first, Node second) {
+    if (first instanceof Leaf) {
+      int[] left = ((Leaf) first).ordinals;
+      int[] right = ((Leaf) second).ordinals;
+      int[] ordinals = Arrays.copyOf(left, left.length + right.length);
+      System.arraycopy(right, 0, ordinals, left.length, right.length);
+      return ordinals.length > MAX_LEAF ? splitLeaf(ordinals) : new Node[] {new Leaf(ordinals)};
+    }
+    Node[] left = ((Branch) first).children;
+    Node[] right = ((Branch) second).children;
+    Node[] children = Arrays.copyOf(left, left.length + right.length);
+    System.arraycopy(right, 0, children, left.length, right.length);
+    return children.length > MAX_CHILDREN
+        ? splitBranch(children)
+        : new Node[] {new Branch(children)};
+  }
+
+  private static Node[] splitLeaf(int[] ordinals) {
+    int half = ordinals.length / 2;
+    return new Node[] {
+        new Leaf(Arrays.copyOfRange(ordinals, 0, half)),
+        new Leaf(Arrays.copyOfRange(ordinals, half, ordinals.length))};
+  }
+
+  private static Node[] splitBranch(Node[] children) {
+    int half = children.length / 2;
+    return new Node[] {
+        new Branch(Arrays.copyOfRange(children, 0, half)),
+        new Branch(Arrays.copyOfRange(children, half, children.length))};
+  }
+
+  /** Returns a copy of the nodes with count of them, from index on, replaced by others. */
+  private static Node[] replace(Node[] nodes, int index, int count, Node[] replacements) {
+    Node[] result = new Node[nodes.length - count + replacements.length];
+    System.arraycopy(nodes, 0, result, 0, index);
+    System.arraycopy(replacements, 0, result, index, replacements.length);
+    System.arraycopy(nodes, index + count, result, index + replacements.length,
+        nodes.length - index - count);
+    return result;
+  }
+
+  /** Returns the last child whose first video is at or before the given one, or -1 if none. */
+  private int route(Branch branch, int ordinal) {
+    int low = 0;
+    int high = branch.firsts.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (store.compareTitleOrder(branch.firsts[mid], ordinal) <= 0) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low - 1;
+  }
+
+  /** Returns the number of the sorted ordinals at or before the given one in title order. */
+  private int upperBound(int[] ordinals, int ordinal) {
+    int low = 0;
+    int high = ordinals.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (store.compareTitleOrder(ordinals[mid], ordinal) <= 0) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  /** Copies the videos of the node at positions from to to (relative to it) into the array. */
+  private static void copy(Node node, int from, int to, int[] into, int offset) {
+    if (node instanceof Leaf) {
+      System.arraycopy(((Leaf) node).ordinals, from, into, offset, to - from);
+      return;
+    }
+    Branch branch = (Branch) node;
+    for (int child = branch.childAt(from); child < branch.children.length; child++) {
+      int start = branch.start(child);
+      if (start >= to) {
+        break;
+      }
+      int childFrom = Math.max(from, start) - start;
+      int childTo = Math.min(to, branch.ends[child]) - start;
+      copy(branch.children[child], childFrom, childTo, into, offset + start + childFrom - from);
+    }
+  }
+
+  private static void forEach(Node node, IntConsumer action) {
+    if (node instanceof Leaf) {
+      for (int ordinal : ((Leaf) node).ordinals) {
+        action.accept(ordinal);
+      }
+      return;
+    }
+    for (Node child : ((Branch) node).children) {
+      forEach(child, action);
+    }
+  }
+
+  /** Appends the node's videos that are in the set to the array; returns the new count. */
+  private static int collect(Node node, OrdinalBitmap videos, int[] into, int count) {
+    if (node instanceof Leaf) {
+      for (int ordinal : ((Leaf) node).ordinals) {
+        if (videos.contains(ordinal)) {
+          into[count++] = ordinal;
+          if (count == into.length) {
+            break;
+          }
+        }
+      }
+      return count;
+    }
+    for (Node child : ((Branch) node).children) {
+      count = collect(child, videos, into, count);
+      if (count == into.length) {
+        break;
+      }
+    }
+    return count;
+  }
+
+  /** Sorts ordinals into title order, with a merge sort so that no ordinal is boxed. */
+  static void sort(int[] ordinals, VideoStore store) {
+    if (ordinals.length > 1) {
+      mergeSort(ordinals.clone(), ordinals, 0, ordinals.length, store);
+    }
+  }
+
+  /** Sorts dest[from, to) using src, which holds the same values there, as scratch space. */
+  private static void mergeSort(int[] src, int[] dest, int from, int to, VideoStore store) {
+    if (to - from <= INSERTION_SORT_LIMIT) {
+      for (int i = from + 1; i < to; i++) {
+        int ordinal = dest[i];
+        int j = i;
+        for (; j > from && store.compareTitleOrder(dest[j - 1], ordinal) > 0; j--) {
+          dest[j] = dest[j - 1];
+        }
+        dest[j] = ordinal;
+      }
+      return;
+    }
+    int mid = (from + to) >>> 1;
+    mergeSort(dest, src, from, mid, store);
+    mergeSort(dest, src, mid, to, store);
+    if (store.compareTitleOrder(src[mid - 1], src[mid]) <= 0) {
+      System.arraycopy(src, from, dest, from, to - from);
+      return;
+    }
+    for (int i = from, left = from, right = mid; i < to; i++) {
+      if (right == to || (left < mid && store.compareTitleOrder(src[left], src[right]) <= 0)) {
+        dest[i] = src[left++];
+      } else {
+        dest[i] = src[right++];
+      }
+    }
+  }
+
+  private abstract static class Node {
+
+    abstract int size();
+
+    /** Returns the first video below the node in title order. */
+    abstract int first();
+
+    /** Checks whether the node has shrunk enough to be merged with a neighbour. */
+    abstract boolean isSmall();
+  }
+
+  private static final class Leaf extends Node {
+
+    final int[] ordinals;
+
+    Leaf(int[] ordinals) {
+      this.ordinals = ordinals;
+    }
+
+    @Override
+    int size() {
+      return ordinals.length;
+    }
+
+    @Override
+    int first() {
+      return ordinals[0];
+    }
+
+    @Override
+    boolean isSmall() {
+      return ordinals.length < MAX_LEAF / 4;
+    }
+  }
+
+  private static final class Branch extends Node {
+
+    final Node[] children;
+    /** The number of videos in children 0 to i, for each i. */
+    final int[] ends;
+    /** The first video of each child. */
+    final int[] firsts;
+
+    Branch(Node[] children) {
+      this.children = children;
+      this.ends = new int[children.length];
+      this.firsts = new int[children.length];
+      int end = 0;
+      for (int i = 0; i < children.length; i++) {
+        end += children[i].size();
+        ends[i] = end;
+        firsts[i] = children[i].first();
+      }
+    }
+
+    /** Returns the number of videos in the children before the given one. */
+    int start(int child) {
+      return child == 0 ? 0 : ends[child - 1];
+    }
+
+    /** Returns the child holding the video at the given position. */
+    int childAt(int index) {
+      int low = 0;
+      int high = ends.length - 1;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (ends[mid] > index) {
+          high = mid;
+        } else {
+          low = mid + 1;
+        }
+      }
+      return low;
+    }
+
+    @Override
+    int size() {
+      return ends[ends.length - 1];
+    }
+
+    @Override
+    int first() {
+      return firsts[0];
+    }
+
+    @Override
+    boolean isSmall() {
+      return children.length < MAX_CHILDREN / 4;
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * A trigram index over case-folded video titles, used to answer title substring searches, and a
+ * token index over the same titles for fuzzy searches.
+ *
+ * <p>Every posting list is an {@link OrdinalBitmap}. A search intersects the posting lists of all
+ * the term's trigrams with the videos it may return, and only the remaining candidates have their
+ * titles checked. A fuzzy search looks up the title tokens close to each word of the term in the
+ * token posting lists, which are kept in a {@link PrefixTrie}. The index is part of a
+ * {@link CatalogVersion} and never changes once built; {@link #edit} returns a new index that
+ * shares every posting list the edit did not touch.
+ */
+class TitleSearchIndex {
+
+  private static final int GRAM = 3;
+
+  private final VideoStore store;
+  /** Maps each trigram of a folded title to the videos whose title contains it. */
+  private final HashTrie<String, OrdinalBitmap> trigrams;
+  /** Maps each token of a folded title to the videos whose title contains it. */
+  private final PrefixTrie tokens;
+
+  /** Creates an empty index. */
+  TitleSearchIndex(VideoStore store) {
+    this(store, HashTrie.empty(), PrefixTrie.EMPTY);
+  }
+
+  private TitleSearchIndex(VideoStore store, HashTrie<String, OrdinalBitmap> trigrams,
+      PrefixTrie tokens) {
+    this.store = store;
+    this.trigrams = trigrams;
+    this.tokens = tokens;
+  }
+
+  /**
+   * Folds a title or search term the same way for indexing and querying, whatever the default
+   * locale.
+   */
+  static String fold(String text) {
+    return text.toLowerCase(Locale.ROOT);
+  }
+
+  /** Returns an index without the titles of the removed videos and with those of the added ones. */
+  TitleSearchIndex edit(OrdinalBitmap removed, OrdinalBitmap added) {
+    PrefixTrie editedTokens = tokens;
+    for (Map.Entry<String, OrdinalBitmap.Builder> change
+        : changes(TitleSearchIndex::tokensOf, removed, added).entrySet()) {
+      editedTokens = editedTokens.put(change.getKey(), tokens.get(change.getKey())
+          .andNot(removed)
+          .or(change.getValue().build()));
+    }
+    return new TitleSearchIndex(store,
+        editPostings(trigrams, TitleSearchIndex::gramsOf, removed, added), editedTokens);
+  }
+
+  /** Applies the edit to the posting lists of the keys it touches, sharing all the others. */
+  private HashTrie<String, OrdinalBitmap> editPostings(HashTrie<String, OrdinalBitmap> postings,
+      Function<String, Set<String>> keysOf, OrdinalBitmap removed, OrdinalBitmap added) {
+    HashTrie.Editor<String, OrdinalBitmap> edited = postings.edit();
+    for (Map.Entry<String, OrdinalBitmap.Builder> change
+        : changes(keysOf, removed, added).entrySet()) {
+      OrdinalBitmap keyPostings = postings.getOrDefault(change.getKey(), OrdinalBitmap.EMPTY)
+          .andNot(removed)
+          .or(change.getValue().build());
+      if (keyPostings.isEmpty()) {
+        edited.remove(change.getKey());
+      } else {
+        edited.put(change.getKey(), keyPostings);
+      }
+    }
+    return edited.build();
+  }
+
+  /**
+   * Returns the keys the edit touches, each with a builder holding the added videos that have it.
+   */
+  private Map<String, OrdinalBitmap.Builder> changes(Function<String, Set<String>> keysOf,
+      OrdinalBitmap removed, OrdinalBitmap added) {
+    Map<String, OrdinalBitmap.Builder> changes = new HashMap<>();
+    removed.forEach(ordinal -> {
+      for (String key : keysOf.apply(store.getFoldedTitle(ordinal))) {
+        changes.computeIfAbsent(key, k -> new OrdinalBitmap.Builder());
+      }
+    });
+    added.forEach(ordinal -> {
+      for (String key : keysOf.apply(store.getFoldedTitle(ordinal))) {
+        changes.computeIfAbsent(key, k -> new OrdinalBitmap.Builder()).add(ordinal);
+      }
+    });
+    return changes;
+  }
+
+  /**
+   * Returns those of the given videos whose folded title contains the folded search term. The
+   * candidates are the videos in the posting lists of all the term's trigrams, intersected
+   * smallest first, or all the given videos for terms shorter than a trigram; each candidate is
+   * then verified with String.contains.
+   */
+  OrdinalBitmap search(String searchTerm, OrdinalBitmap among) {
+    String term = fold(searchTerm);
+    OrdinalBitmap.Builder matches = new OrdinalBitmap.Builder();
+    candidates(term, among).forEach(ordinal -> {
+      if (store.foldedTitleContains(ordinal, term)) {
+        matches.add(ordinal);
+      }
+    });
+    return matches.build();
+  }
+
+  private OrdinalBitmap candidates(String term, OrdinalBitmap among) {
+    if (term.length() < GRAM) {
+      return among;
+    }
+    Set<String> grams = gramsOf(term);
+    OrdinalBitmap[] postings = new OrdinalBitmap[grams.size()];
+    int count = 0;
+    for (String gram : grams) {
+      OrdinalBitmap gramPostings = trigrams.get(gram);
+      if (gramPostings == null) {
+        return OrdinalBitmap.EMPTY;
+      }
+      postings[count++] = gramPostings;
+    }
+    Arrays.sort(postings, Comparator.comparingInt(OrdinalBitmap::cardinality));
+    OrdinalBitmap candidates = postings[0].and(among);
+    for (int i = 1; i < postings.length && !candidates.isEmpty(); i++) {
+      candidates = candidates.and(postings[i]);
+    }
+    return candidates;
+  }
+
+  /**
+   * Returns those of the given videos with, for every word of the search term, a title token
+   * within a few edits of it: none for words of up to 2 characters, 1 for words of up to 5 and 2
+   * for longer ones. The tokens are found by walking the token trie with a Levenshtein row per
+   * character, abandoning any branch whose row has gone past the allowed distance.
+   */
+  OrdinalBitmap fuzzySearch(String searchTerm, OrdinalBitmap among) {
+    Set<String> words = tokensOf(fold(searchTerm));
+    if (words.isEmpty()) {
+      return OrdinalBitmap.EMPTY;
+    }
+    OrdinalBitmap matches = among;
+    for (String word : words) {
+      int maxEdits = word.length() <= 2 ? 0 : word.length() <= 5 ? 1 : 2;
+      OrdinalBitmap wordMatches = OrdinalBitmap.EMPTY;
+      for (String token : tokens.withinDistance(word, maxEdits)) {
+        wordMatches = wordMatches.or(tokens.get(token));
+      }
+      matches = matches.and(wordMatches);
+      if (matches.isEmpty()) {
+        break;
+      }
+    }
+    return matches;
+  }
+
+  /** Returns the distinct words of a folded title or search term. */
+  private static Set<String> tokensOf(String folded) {
+    return new HashSet<>(TermIndex.words(folded));
+  }
+
+  /** Returns the distinct trigrams of a folded title. */
+  private static Set<String> gramsOf(String folded) {
+    Set<String> grams = new HashSet<>();
+    for (int i = 0; i + GRAM <= folded.length(); i++) {
+      grams.add(folded.substring(i, i + GRAM));
+    }
+    return grams;
+  }
+}
@@ -1,98 +1,154 @@
 package com.google;
 
-import java.util.Collections;
+import java.util.AbstractList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Objects;
 
-/** A class used to represent a video. */
+/**
+ * A class used to represent a video.
+ *
+ * <p>A video is a lightweight view of one record in a {@link VideoStore}, and Video instances are
+ * equal when they have the same video id. A video reads its flag state from the current
+ * {@link CatalogVersion}. If a reload has replaced its record with a changed one, or the catalog
+ * has been compacted into a successor store, it reads the record that now holds its id, so videos
+ * held elsewhere (the playing video, playlists) stay current. A removed video keeps reading its
+ * own record, which keeps that record's store alive for as long as the video is held.
+ */
 class Video {
 
-  private final String title;
-  private final String videoId;
-  private final List<String> tags;
-  private Boolean flag = false;
-  private String flaggedReason ="Not supplied";
+  /** Lexical order of titles, with the video id breaking ties between equal titles. */
+  static final Comparator<Video> TITLE_ORDER = (video, other) -> {
+    if (video.store != other.store) {
+      int order = video.getTitle().compareTo(other.getTitle());
+      return order != 0 ? order : video.getVideoId().compareTo(other.getVideoId());
+    }
+    return video.ordinal == other.ordinal
+        ? 0
+        : video.store.compareTitleOrder(video.ordinal, other.ordinal);
+  };
+
+  private static final String NO_REASON = "Not supplied";
+
+  private final VideoStore store;
+  private final int ordinal;
+
+  Video(VideoStore store, int ordinal) {
+    this.store = store;
+    this.ordinal = ordinal;
+  }
+
+  /**
+   * Returns the video whose record holds this video's data in the given version: this one, or
+   * the record which replaced it. A removed video is its own.
+   */
+  private Video in(CatalogVersion version) {
+    if (version.store == store && version.contains(ordinal)) {
+      return this;
+    }
+    int replacement = version.find(getVideoId());
+    return replacement == VideoStore.NOT_FOUND ? this : version.store.video(replacement);
+  }
 
-  public Video(String title, String videoId, List<String> tags) {
-    this.title = title;
-    this.videoId = videoId;
-    this.tags = Collections.unmodifiableList(tags);
+  /** Returns the video as of the current catalog version; see {@link #in}. */
+  private Video current() {
+    return in(store.version());
+  }
+
+  /** Returns the reason the video is flagged with in the version, or null; see {@link #in}. */
+  private static String reason(CatalogVersion version, Video current) {
+    return current.store == version.store ? version.getFlaggedReason(current.ordinal) : null;
   }
 
   /** Returns the title of the video. */
   public String getTitle() {
-    return title;
+    Video current = current();
+    return current.store.getTitle(current.ordinal);
   }
 
   /** Returns the video id of the video. */
   public String getVideoId() {
-    return videoId;
+    return store.getVideoId(ordinal);
   }
 
-  /** Returns a readonly collection of the tags of the video. */
+  /** Returns a readonly collection of the tags of the video, read from its record on demand. */
   public List<String> getTags() {
-    return tags;
+    Video current = current();
+    VideoStore store = current.store;
+    int ordinal = current.ordinal;
+    TagDictionary tagDictionary = store.getTagDictionary();
+    return new AbstractList<>() {
+      @Override
+      public String get(int index) {
+        Objects.checkIndex(index, size());
+        return tagDictionary.tag(store.tagId(ordinal, index));
+      }
+
+      @Override
+      public int size() {
+        return store.tagCount(ordinal);
+      }
+    };
+  }
+
+  /**
+   * Returns the ids of the tags of the video in the dictionary of the store it is read from. The
+   * array must not be modified.
+   */
+  int[] getTagIds() {
+    Video current = current();
+    return current.store.getTagIds(current.ordinal);
+  }
+
+  /** Returns the position of the video's record in its store. */
+  int getOrdinal() {
+    return ordinal;
   }
   /** Checks whether the video is flagged(True) or not(False). */
   public Boolean getFlag(){
-    return flag;
+    CatalogVersion version = store.version();
+    return reason(version, in(version)) != null;
   }
   /** Returns the reason for being flagged */
   public String getFlaggedReason() {
-    return flaggedReason;
+    CatalogVersion version = store.version();
+    String reason = reason(version, in(version));
+    return reason == null ? NO_REASON : reason;
   }
-  /** returns the information of the video including flag details */
+  /** returns the information of the video including flag details, after the given line prefix */
   public String getInfo(String line) {
-    String info = "";
-    if (!line.equals("")) {
-      info += line;
-    }
-    info += title + " (" + videoId + ") [";
-    List<String> a = tags;
-    int size = a.size();
-    if (size > 1) {
-      for (int j = 0; j < size - 1; j++) {
-        info += a.get(j) + " ";
-      }
-      info += a.get(size - 1) + "]";
-    }
-    else{
-      info += "]";
-    }
-    if(flag){
-      info += " - FLAGGED (reason: "+flaggedReason+")";
-    }
-    return info;
+    CatalogVersion version = store.version();
+    Video current = in(version);
+    String info = current.store.renderedLine(current.ordinal, reason(version, current));
+    return line.isEmpty() ? info : line + info;
   }
-  /** Flags video if it is not already flagged (no specific reason supplied) */
-  public void flagVideo(){
-    if(flag){
-      System.out.println("Cannot flag video: Video is already flagged");
-    }
-    else {
-      this.flag = true;
-      System.out.println("Successfully flagged video: " + title + " (reason: Not supplied)");
-    }
+  /** Flags video if it is not already flagged (no specific reason supplied); returns whether it was flagged */
+  public boolean flagVideo(){
+    return flagVideo(NO_REASON);
   }
-  /** Flags video if it is not already flagged (reason is supplied) */
-  public void flagVideo(String flaggedReason){
-    if(flag){
-      System.out.println("Cannot flag video: Video is already flagged");
-    }
-    else {
-      flag = true;
-      this.flaggedReason = flaggedReason;
-      System.out.println("Successfully flagged video: " + title + " (reason: " + flaggedReason + ")");
-    }
+  /** Flags video if it is not already flagged (reason is supplied); returns whether it was flagged */
+  public boolean flagVideo(String flaggedReason){
+    return store.versions().setFlag(getVideoId(), flaggedReason);
   }
-  /** Removes flag from video (if video is flagged) to allow video being played later */
-  public void allowVideo(){
-    if(flag){
-      flag = false;
-      System.out.println("Successfully removed flag from video: "+ title);
+  /** Removes flag from video (if video is flagged) to allow video being played later; returns whether it was flagged */
+  public boolean allowVideo(){
+    return store.versions().setFlag(getVideoId(), null);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof Video)) {
+      return false;
     }
-    else{
-      System.out.println("Cannot remove flag from video: Video is not flagged");
+    Video other = (Video) o;
+    if (store != other.store) {
+      return other.store.videoIdEquals(other.ordinal, getVideoId());
     }
+    return ordinal == other.ordinal || store.compareVideoIds(ordinal, other.ordinal) == 0;
   }
 
+  @Override
+  public int hashCode() {
+    return store.hashVideoId(ordinal);
+  }
 }
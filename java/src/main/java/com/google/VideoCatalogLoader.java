@@ -0,0 +1,260 @@
+package com.google;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Reads the video catalog ("title | id | tag, tag, ...", one video per line).
+ *
+ * <p>A catalog on the file system is memory-mapped in line-aligned segments of at most
+ * Integer.MAX_VALUE bytes, so catalogs larger than one ByteBuffer can address still load; one
+ * inside a jar is read from the classpath entry. Lines are parsed straight from the bytes without
+ * regular expressions or split arrays.
+ * Large catalogs are cut into line-aligned chunks that are parsed in parallel on the common
+ * ForkJoinPool; videos are still handed to the sink in file order, so a later line with a
+ * duplicate id wins exactly as it would with a sequential read.
+ */
+class VideoCatalogLoader {
+
+  /** Catalogs are not split into chunks smaller than this many bytes. */
+  static final int MIN_CHUNK_SIZE = 1 << 20;
+  /** A mapped segment of a catalog file is at most this many bytes, the most one buffer holds. */
+  static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+
+  /** Receives each video read from the catalog. */
+  interface Sink {
+    void accept(String title, String videoId, int[] tagIds);
+  }
+
+  private static final byte NEWLINE = '\n';
+  private static final byte FIELD_SEPARATOR = '|';
+  private static final byte TAG_SEPARATOR = ',';
+
+  /**
+   * Loads the catalog at the given URL, interning tags into the dictionary and passing each video
+   * to the sink.
+   */
+  static void load(URL url, TagDictionary tags, Sink sink) throws IOException {
+    load(url, tags, sink, MAX_SEGMENT_SIZE);
+  }
+
+  /**
+   * Loads the catalog at the given URL, mapping a file at most segmentSize bytes at a time. Each
+   * segment ends at a line break, so a line longer than segmentSize cannot be read.
+   */
+  static void load(URL url, TagDictionary tags, Sink sink, long segmentSize) throws IOException {
+    if (!"file".equals(url.getProtocol())) {
+      try (InputStream in = url.openStream()) {
+        parse(ByteBuffer.wrap(in.readAllBytes()), tags, sink);
+      }
+      return;
+    }
+    Path path;
+    try {
+      path = Path.of(url.toURI());
+    } catch (URISyntaxException e) {
+      throw new IOException("Invalid catalog location: " + url, e);
+    }
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      long position = 0;
+      while (position < size) {
+        long length = Math.min(segmentSize, size - position);
+        ByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        if (position + length < size) {
+          int end = lastIndexOf(segment, NEWLINE, (int) length);
+          if (end < 0) {
+            throw new IOException("Catalog line at byte " + position + " is longer than "
+                + segmentSize + " bytes");
+          }
+          segment.limit(end + 1);
+        }
+        parse(segment, tags, sink);
+        position += segment.limit();
+      }
+    }
+  }
+
+  /** Parses one mapped segment or in-memory catalog, in parallel chunks if it is large. */
+  private static void parse(ByteBuffer catalog, TagDictionary tags, Sink sink) {
+    int chunks = ForkJoinPool.getCommonPoolParallelism() * 4;
+    parseParallel(catalog, Math.max(MIN_CHUNK_SIZE, catalog.limit() / chunks), tags, sink);
+  }
+
+  /**
+   * Parses the whole catalog in line-aligned chunks of roughly chunkSize bytes on the common
+   * ForkJoinPool, then passes the videos to the sink in file order on the calling thread.
+   */
+  static void parseParallel(
+      ByteBuffer catalog, int chunkSize, TagDictionary tags, Sink sink) {
+    int end = catalog.limit();
+    if (end <= chunkSize) {
+      parse(catalog, 0, end, tags, sink);
+      return;
+    }
+    List<ForkJoinTask<ParsedChunk>> tasks = new ArrayList<>();
+    int chunkStart = 0;
+    while (chunkStart < end) {
+      int chunkEnd = end - chunkStart <= chunkSize
+          ? end
+          : Math.min(end, indexOf(catalog, NEWLINE, chunkStart + chunkSize, end) + 1);
+      int from = chunkStart;
+      tasks.add(ForkJoinPool.commonPool().submit(() -> {
+        ParsedChunk chunk = new ParsedChunk();
+        parse(catalog, from, chunkEnd, tags, chunk);
+        return chunk;
+      }));
+      chunkStart = chunkEnd;
+    }
+    for (ForkJoinTask<ParsedChunk> task : tasks) {
+      task.join().replay(sink);
+    }
+  }
+
+  /**
+   * Parses the lines in catalog[start, end) and passes each video to the sink. The range must
+   * start at the beginning of a line. Blank lines and lines without a video id are skipped.
+   */
+  static void parse(
+      ByteBuffer catalog, int start, int end, TagDictionary tags, Sink sink) {
+    LineParser parser = new LineParser(catalog, tags);
+    int lineStart = start;
+    while (lineStart < end) {
+      int lineEnd = indexOf(catalog, NEWLINE, lineStart, end);
+      parser.parseLine(lineStart, lineEnd, sink);
+      lineStart = lineEnd + 1;
+    }
+  }
+
+  /** Returns the index of the first b in catalog[from, to), or to if there is none. */
+  static int indexOf(ByteBuffer catalog, byte b, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (catalog.get(i) == b) {
+        return i;
+      }
+    }
+    return to;
+  }
+
+  /** Returns the index of the last b in catalog[0, to), or -1 if there is none. */
+  static int lastIndexOf(ByteBuffer catalog, byte b, int to) {
+    for (int i = to - 1; i >= 0; i--) {
+      if (catalog.get(i) == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Checks whether b is an ASCII character that Character.isWhitespace accepts. */
+  private static boolean isWhitespace(byte b) {
+    return b >= 0 && Character.isWhitespace(b);
+  }
+
+  /** The videos parsed from one chunk, held until they can be passed on in file order. */
+  private static class ParsedChunk implements Sink {
+
+    private final List<String> titles = new ArrayList<>();
+    private final List<String> videoIds = new ArrayList<>();
+    private final List<int[]> tagIds = new ArrayList<>();
+
+    @Override
+    public void accept(String title, String videoId, int[] tags) {
+      titles.add(title);
+      videoIds.add(videoId);
+      tagIds.add(tags);
+    }
+
+    void replay(Sink sink) {
+      for (int i = 0; i < titles.size(); i++) {
+        sink.accept(titles.get(i), videoIds.get(i), tagIds.get(i));
+      }
+    }
+  }
+
+  /** Parses single lines, reusing one scratch array to decode fields. */
+  private static class LineParser {
+
+    private final ByteBuffer catalog;
+    private final ByteBuffer view;
+    private final TagDictionary tags;
+    private byte[] scratch = new byte[256];
+    private int[] tagIds = new int[8];
+
+    LineParser(ByteBuffer catalog, TagDictionary tags) {
+      this.catalog = catalog;
+      this.view = catalog.duplicate();
+      this.tags = tags;
+    }
+
+    void parseLine(int start, int end, Sink sink) {
+      int titleEnd = indexOf(catalog, FIELD_SEPARATOR, start, end);
+      if (titleEnd == end) {
+        return;
+      }
+      int idEnd = indexOf(catalog, FIELD_SEPARATOR, titleEnd + 1, end);
+      String id = decode(titleEnd + 1, idEnd);
+      if (id.isEmpty()) {
+        return;
+      }
+      String title = decode(start, titleEnd);
+      int tagCount = 0;
+      if (idEnd < end) {
+        int tagsEnd = indexOf(catalog, FIELD_SEPARATOR, idEnd + 1, end);
+        int tagStart = idEnd + 1;
+        while (tagStart <= tagsEnd) {
+          int tagEnd = indexOf(catalog, TAG_SEPARATOR, tagStart, tagsEnd);
+          String tag = decode(tagStart, tagEnd);
+          if (!tag.isEmpty()) {
+            if (tagCount == tagIds.length) {
+              tagIds = Arrays.copyOf(tagIds, tagCount * 2);
+            }
+            tagIds[tagCount++] = tags.intern(tag);
+          }
+          tagStart = tagEnd + 1;
+        }
+      }
+      sink.accept(title, id, Arrays.copyOf(tagIds, tagCount));
+    }
+
+    /**
+     * Decodes catalog[from, to) as UTF-8 with surrounding whitespace stripped as String.strip
+     * does. ASCII whitespace is skipped in the bytes; strip() then only has work to do (and only
+     * copies) when a field is padded with non-ASCII whitespace.
+     */
+    private String decode(int from, int to) {
+      while (from < to && isWhitespace(catalog.get(from))) {
+        from++;
+      }
+      while (to > from && isWhitespace(catalog.get(to - 1))) {
+        to--;
+      }
+      int length = to - from;
+      if (length == 0) {
+        return "";
+      }
+      if (catalog.hasArray()) {
+        return new String(
+            catalog.array(), catalog.arrayOffset() + from, length, StandardCharsets.UTF_8).strip();
+      }
+      if (scratch.length < length) {
+        scratch = new byte[Math.max(length, scratch.length * 2)];
+      }
+      view.position(from);
+      view.get(scratch, 0, length);
+      return new String(scratch, 0, length, StandardCharsets.UTF_8).strip();
+    }
+  }
+}
@@ -0,0 +1,268 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * A map from video id to ordinal, part of a {@link CatalogVersion}.
+ *
+ * <p>The index is a hash array mapped trie like {@link HashTrie}, but it holds nothing but
+ * ordinals: ids are hashed and compared through the {@link VideoStore}, so it adds no per-video
+ * objects. A published index is never changed. Writers make their changes through an
+ * {@link Editor}, which copies only the nodes on the paths to the ids it inserts or deletes, and
+ * publish the index it builds with the next version.
+ */
+final class VideoIdIndex {
+
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+  /** Nodes below this shift have used up the hash and keep their colliding ids in a list. */
+  private static final int MAX_SHIFT = 30;
+  private static final int[] NO_ORDINALS = new int[0];
+  private static final Node[] NO_NODES = new Node[0];
+
+  private final VideoStore store;
+  private final Node root;
+  private final int size;
+
+  VideoIdIndex(VideoStore store) {
+    this(store, new Node(null, 0, 0, NO_ORDINALS, NO_NODES), 0);
+  }
+
+  private VideoIdIndex(VideoStore store, Node root, int size) {
+    this.store = store;
+    this.root = root;
+    this.size = size;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /** Returns the ordinal of the video with the given id, or VideoStore.NOT_FOUND. */
+  int find(String videoId) {
+    return find(root, videoId.hashCode(), o -> store.videoIdEquals(o, videoId));
+  }
+
+  /** Starts a batch of changes to this index. */
+  Editor edit() {
+    return new Editor(this);
+  }
+
+  private static int find(Node node, int hash, IntPredicate match) {
+    for (int shift = 0; shift <= MAX_SHIFT; shift += BITS) {
+      int bit = bit(hash, shift);
+      if ((node.dataMap & bit) != 0) {
+        int ordinal = node.ordinals[index(node.dataMap, bit)];
+        return match.test(ordinal) ? ordinal : VideoStore.NOT_FOUND;
+      }
+      if ((node.nodeMap & bit) == 0) {
+        return VideoStore.NOT_FOUND;
+      }
+      node = node.nodes[index(node.nodeMap, bit)];
+    }
+    for (int ordinal : node.ordinals) {
+      if (match.test(ordinal)) {
+        return ordinal;
+      }
+    }
+    return VideoStore.NOT_FOUND;
+  }
+
+  private static int bit(int hash, int shift) {
+    return 1 << ((hash >>> shift) & MASK);
+  }
+
+  private static int index(int map, int bit) {
+    return Integer.bitCount(map & (bit - 1));
+  }
+
+  /**
+   * A trie node: an ordinal for each bit of dataMap and a node for each bit of nodeMap, in bit
+   * order. A collision node holds only ordinals.
+   */
+  private static final class Node {
+
+    /** The token of the editor that may change this node in place. */
+    final Object owner;
+    int dataMap;
+    int nodeMap;
+    int[] ordinals;
+    Node[] nodes;
+
+    Node(Object owner, int dataMap, int nodeMap, int[] ordinals, Node[] nodes) {
+      this.owner = owner;
+      this.dataMap = dataMap;
+      this.nodeMap = nodeMap;
+      this.ordinals = ordinals;
+      this.nodes = nodes;
+    }
+  }
+
+  /** Changes to an index for one writer. The editor must not be used once it has built. */
+  final class Editor {
+
+    private Object owner = new Object();
+    private Node root;
+    private int size;
+
+    private Editor(VideoIdIndex index) {
+      this.root = index.root;
+      this.size = index.size;
+    }
+
+    /** Returns the ordinal of the video with the given id, or VideoStore.NOT_FOUND. */
+    int find(String videoId) {
+      return VideoIdIndex.find(root, videoId.hashCode(), o -> store.videoIdEquals(o, videoId));
+    }
+
+    /** Returns the ordinal of the video with the same id as the given one, or NOT_FOUND. */
+    int findSameId(int ordinal) {
+      return VideoIdIndex.find(root, store.hashVideoId(ordinal),
+          o -> store.compareVideoIds(o, ordinal) == 0);
+    }
+
+    /** Adds a video whose id is not in the index yet. */
+    void insert(int ordinal) {
+      checkOpen();
+      root = insert(root, ordinal, store.hashVideoId(ordinal), 0);
+      size++;
+    }
+
+    /** Removes a video that is in the index. */
+    void delete(int ordinal) {
+      checkOpen();
+      root = delete(root, ordinal, store.hashVideoId(ordinal), 0);
+      size--;
+    }
+
+    VideoIdIndex build() {
+      checkOpen();
+      owner = null;
+      return new VideoIdIndex(store, root, size);
+    }
+
+    private void checkOpen() {
+      if (owner == null) {
+        throw new IllegalStateException("The editor has already built its index");
+      }
+    }
+
+    private Node insert(Node node, int ordinal, int hash, int shift) {
+      if (shift > MAX_SHIFT) {
+        int[] ordinals = Arrays.copyOf(node.ordinals, node.ordinals.length + 1);
+        ordinals[node.ordinals.length] = ordinal;
+        return changed(node, 0, 0, ordinals, NO_NODES);
+      }
+      int bit = bit(hash, shift);
+      if ((node.dataMap & bit) != 0) {
+        int index = index(node.dataMap, bit);
+        int existing = node.ordinals[index];
+        Node child = pair(existing, store.hashVideoId(existing), ordinal, hash, shift + BITS);
+        return changed(node, node.dataMap ^ bit, node.nodeMap | bit,
+            without(node.ordinals, index),
+            with(node.nodes, index(node.nodeMap, bit), child));
+      }
+      if ((node.nodeMap & bit) != 0) {
+        int index = index(node.nodeMap, bit);
+        return withNode(node, index, insert(node.nodes[index], ordinal, hash, shift + BITS));
+      }
+      int[] ordinals = new int[node.ordinals.length + 1];
+      int index = index(node.dataMap, bit);
+      System.arraycopy(node.ordinals, 0, ordinals, 0, index);
+      ordinals[index] = ordinal;
+      System.arraycopy(node.ordinals, index, ordinals, index + 1, node.ordinals.length - index);
+      return changed(node, node.dataMap | bit, node.nodeMap, ordinals, node.nodes);
+    }
+
+    private Node delete(Node node, int ordinal, int hash, int shift) {
+      if (shift > MAX_SHIFT) {
+        int index = 0;
+        while (node.ordinals[index] != ordinal) {
+          index++;
+        }
+        return changed(node, 0, 0, without(node.ordinals, index), NO_NODES);
+      }
+      int bit = bit(hash, shift);
+      if ((node.dataMap & bit) != 0) {
+        return changed(node, node.dataMap ^ bit, node.nodeMap,
+            without(node.ordinals, index(node.dataMap, bit)), node.nodes);
+      }
+      int index = index(node.nodeMap, bit);
+      Node child = delete(node.nodes[index], ordinal, hash, shift + BITS);
+      if (child.nodeMap != 0 || child.ordinals.length != 1) {
+        return withNode(node, index, child);
+      }
+      // A single video is left below: keep it in this node instead.
+      int[] ordinals = new int[node.ordinals.length + 1];
+      int dataIndex = index(node.dataMap, bit);
+      System.arraycopy(node.ordinals, 0, ordinals, 0, dataIndex);
+      ordinals[dataIndex] = child.ordinals[0];
+      System.arraycopy(node.ordinals, dataIndex, ordinals, dataIndex + 1,
+          node.ordinals.length - dataIndex);
+      Node[] nodes = new Node[node.nodes.length - 1];
+      System.arraycopy(node.nodes, 0, nodes, 0, index);
+      System.arraycopy(node.nodes, index + 1, nodes, index, nodes.length - index);
+      return changed(node, node.dataMap | bit, node.nodeMap ^ bit, ordinals, nodes);
+    }
+
+    /** Returns a node holding two videos whose id hashes agree below the given shift. */
+    private Node pair(int ordinal, int hash, int other, int otherHash, int shift) {
+      if (shift > MAX_SHIFT) {
+        return new Node(owner, 0, 0, new int[] {ordinal, other}, NO_NODES);
+      }
+      int bit = bit(hash, shift);
+      int otherBit = bit(otherHash, shift);
+      if (bit == otherBit) {
+        return new Node(owner, 0, bit, NO_ORDINALS,
+            new Node[] {pair(ordinal, hash, other, otherHash, shift + BITS)});
+      }
+      return new Node(owner, bit | otherBit, 0, Integer.compareUnsigned(bit, otherBit) < 0
+          ? new int[] {ordinal, other}
+          : new int[] {other, ordinal}, NO_NODES);
+    }
+
+    /** Returns the node with one child replaced, copying it unless this editor owns it. */
+    private Node withNode(Node node, int index, Node child) {
+      if (node.nodes[index] == child) {
+        return node;
+      }
+      Node result = node.owner == owner
+          ? node
+          : new Node(owner, node.dataMap, node.nodeMap, node.ordinals, node.nodes.clone());
+      result.nodes[index] = child;
+      return result;
+    }
+
+    /**
+     * Returns the node with the given contents, changed in place if this editor owns it. The
+     * nodes array of a node this editor owns is changed in place later, so it is never shared.
+     */
+    private Node changed(Node node, int dataMap, int nodeMap, int[] ordinals, Node[] nodes) {
+      if (node.owner != owner) {
+        return new Node(owner, dataMap, nodeMap, ordinals,
+            nodes == node.nodes ? nodes.clone() : nodes);
+      }
+      node.dataMap = dataMap;
+      node.nodeMap = nodeMap;
+      node.ordinals = ordinals;
+      node.nodes = nodes;
+      return node;
+    }
+
+    private int[] without(int[] array, int index) {
+      int[] result = new int[array.length - 1];
+      System.arraycopy(array, 0, result, 0, index);
+      System.arraycopy(array, index + 1, result, index, result.length - index);
+      return result;
+    }
+
+    private Node[] with(Node[] array, int index, Node node) {
+      Node[] result = new Node[array.length + 1];
+      System.arraycopy(array, 0, result, 0, index);
+      result[index] = node;
+      System.arraycopy(array, index, result, index + 1, array.length - index);
+      return result;
+    }
+  }
+}
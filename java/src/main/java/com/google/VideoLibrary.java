@@ -1,107 +1,494 @@
 package com.google;
 
-import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Scanner;
-import java.util.stream.Collectors;
-import java.util.Random;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * A class used to represent a Video Library.
+ *
+ * <p>Queries run without locking against the current {@link CatalogVersion}, so each one sees a
+ * single consistent catalog. Changes (adding and removing videos, reloads, flagging) hold the
+ * monitor of the library's {@link CatalogVersions}, build the next version and publish it in one
+ * step: no reader sees a half-applied change.
  */
 class VideoLibrary {
 
-  private final HashMap<String, Video> videos;
+  /** Publishes the current catalog version, over the store holding its video records. */
+  private final CatalogVersions versions;
+  /** Caches the results of searchVideos and searchVideosWithTag. */
+  private final QueryCache queryCache;
+  /** The results that handed out page cursors, so that next pages resume from them. */
+  private final RetainedResults retainedResults;
+  /** Where videos.txt was loaded from, or null if it could not be found. */
+  private URL catalog;
 
   public VideoLibrary() {
-    this.videos = new HashMap<>();
-    try {
-      File file = new File(this.getClass().getResource("/videos.txt").getFile());
+    this(VideoStore.create(new TagDictionary()));
+  }
 
-      Scanner scanner = new Scanner(file);
-      while (scanner.hasNextLine()) {
-        String line = scanner.nextLine();
-        String[] split = line.split("\\|");
-        String title = split[0].strip();
-        String id = split[1].strip();
-        List<String> tags;
-        if (split.length > 2) {
-          tags = Arrays.stream(split[2].split(",")).map(String::strip).collect(
-              Collectors.toList());
-        } else {
-          tags = new ArrayList<>();
-        }
-        this.videos.put(id, new Video(title, id, tags));
+  /** Creates a library on the given (empty) store and loads videos.txt into it. */
+  VideoLibrary(VideoStore store) {
+    this.versions = store.versions();
+    this.queryCache = new QueryCache(versions, QueryCache.DEFAULT_CAPACITY);
+    this.retainedResults = new RetainedResults(versions, RetainedResults.DEFAULT_CAPACITY);
+    try {
+      URL catalog = this.getClass().getResource("/videos.txt");
+      if (catalog == null) {
+        throw new FileNotFoundException("/videos.txt");
       }
-    } catch (FileNotFoundException e) {
+      this.catalog = catalog;
+      loadCatalog(catalog);
+    } catch (IOException e) {
       System.out.println("Couldn't find videos.txt");
       e.printStackTrace();
     }
   }
-  /** Get all videos from library*/
+  /**
+   * Loads the catalog from its binary snapshot if that is current, otherwise parses it and
+   * refreshes the snapshot.
+   */
+  private void loadCatalog(URL catalog) throws IOException {
+    URLConnection connection = catalog.openConnection();
+    long modified = connection.getLastModified();
+    long size = connection.getContentLengthLong();
+    Path snapshot = CatalogSnapshot.locate(catalog);
+    synchronized (versions) {
+      CatalogVersion base = versions.current();
+      VideoStore store = base.store;
+      TagDictionary tags = store.getTagDictionary();
+      CatalogVersion.Editor editor = base.edit();
+      VideoCatalogLoader.Sink sink =
+          (title, videoId, tagIds) -> editor.put(store.add(title, videoId, tagIds));
+      if (snapshot != null && CatalogSnapshot.read(snapshot, modified, size, tags, sink)) {
+        versions.publish(editor.build());
+        return;
+      }
+      VideoCatalogLoader.load(catalog, tags, sink);
+      versions.publish(editor.build());
+    }
+    writeSnapshot(snapshot, modified, size);
+  }
+  /** Writes the current version as the snapshot of the catalog, if it has a snapshot file.*/
+  private void writeSnapshot(Path snapshot, long modified, long size) {
+    if (snapshot != null) {
+      CatalogVersion version = versions.current();
+      try {
+        CatalogSnapshot.write(snapshot, modified, size, version.store.getTagDictionary(),
+            videos(version, version.titleOrder.toArray()));
+      } catch (IOException e) {
+        // The snapshot only speeds up the next start; the library is already loaded.
+      }
+    }
+  }
+  /** Returns where videos.txt was loaded from, or null if it could not be found.*/
+  URL getCatalog() {
+    return catalog;
+  }
+  /**
+   * Re-reads videos.txt and applies the differences to the live library: new ids are added,
+   * missing ids removed, and videos whose title or tags changed are replaced. Unchanged and
+   * replaced videos keep their flag state and their place in playlists. The file is parsed before
+   * the library is locked, into a dictionary of its own, so that tags only reach the library's
+   * dictionary with the videos that carry them; the changes are then published as one new
+   * version.
+   */
+  ReloadSummary reload() throws IOException {
+    if (catalog == null) {
+      throw new FileNotFoundException("/videos.txt");
+    }
+    URLConnection connection = catalog.openConnection();
+    long modified = connection.getLastModified();
+    long size = connection.getContentLengthLong();
+    Map<String, CatalogEntry> entries = new LinkedHashMap<>();
+    TagDictionary tags = new TagDictionary();
+    VideoCatalogLoader.load(catalog, tags, (title, videoId, tagIds) -> {
+      String[] names = new String[tagIds.length];
+      for (int i = 0; i < names.length; i++) {
+        names[i] = tags.tag(tagIds[i]);
+      }
+      entries.put(videoId, new CatalogEntry(title, List.of(names)));
+    });
+    ReloadSummary summary = applyCatalog(entries);
+    writeSnapshot(CatalogSnapshot.locate(catalog), modified, size);
+    return summary;
+  }
+  /** Makes the library hold exactly the given videos, keyed by id; see {@link #reload}.*/
+  ReloadSummary applyCatalog(Map<String, CatalogEntry> entries) {
+    synchronized (versions) {
+      CatalogVersion base = versions.current();
+      VideoStore store = base.store;
+      TagDictionary tags = store.getTagDictionary();
+      CatalogVersion.Editor editor = base.edit();
+      int removed = 0;
+      for (int ordinal : base.all().toArray()) {
+        String videoId = store.getVideoId(ordinal);
+        if (!entries.containsKey(videoId)) {
+          editor.remove(videoId);
+          removed++;
+        }
+      }
+      int added = 0;
+      int changed = 0;
+      for (Map.Entry<String, CatalogEntry> entry : entries.entrySet()) {
+        CatalogEntry video = entry.getValue();
+        int ordinal = base.find(entry.getKey());
+        if (ordinal == VideoStore.NOT_FOUND) {
+          added++;
+        } else if (!video.title.equals(store.getTitle(ordinal)) || !store.tagIdsEqual(ordinal,
+            video.tags.stream().mapToInt(tags::lookup).toArray())) {
+          changed++;
+        } else {
+          continue;
+        }
+        editor.put(store.add(video.title, entry.getKey(),
+            video.tags.stream().mapToInt(tags::intern).toArray()));
+      }
+      versions.publish(editor.build());
+      return new ReloadSummary(added, removed, changed);
+    }
+  }
+  /**
+   * Returns the dictionary of the store the current version is over, whose ids the tag ids of
+   * the library's videos are.
+   */
+  TagDictionary getTagDictionary() {
+    return versions.current().store.getTagDictionary();
+  }
+  /**
+   * Adds a video with the given tags, interning them into the library's dictionary, and replacing
+   * any video with the same id (whose flag state it keeps).
+   */
+  void addVideo(String title, String videoId, List<String> tags) {
+    synchronized (versions) {
+      CatalogVersion base = versions.current();
+      VideoStore store = base.store;
+      CatalogVersion.Editor editor = base.edit();
+      TagDictionary dictionary = store.getTagDictionary();
+      editor.put(store.add(title, videoId, tags.stream().mapToInt(dictionary::intern).toArray()));
+      versions.publish(editor.build());
+    }
+  }
+  /** Removes a video from the library. Returns false if there was no such video.*/
+  boolean removeVideo(String videoId) {
+    synchronized (versions) {
+      CatalogVersion.Editor editor = versions.current().edit();
+      if (!editor.remove(videoId)) {
+        return false;
+      }
+      versions.publish(editor.build());
+      return true;
+    }
+  }
+  /** Returns the videos of the version with the given ordinals, in the same order.*/
+  private static ArrayList<Video> videos(CatalogVersion version, int[] ordinals) {
+    ArrayList<Video> videos = new ArrayList<>(ordinals.length);
+    for (int ordinal : ordinals) {
+      videos.add(version.store.video(ordinal));
+    }
+    return videos;
+  }
+  /** Get all videos from library, in lexical title order*/
   public ArrayList<Video> getVideos() {
-    return new ArrayList<>(this.videos.values());
+    CatalogVersion version = versions.current();
+    return videos(version, version.titleOrder.toArray());
   }
 
   /** Get a video by id. Returns null if the video is not found.*/
   public Video getVideo(String videoId) {
-    return this.videos.get(videoId);
+    CatalogVersion version = versions.current();
+    int ordinal = version.find(videoId);
+    return ordinal == VideoStore.NOT_FOUND ? null : version.store.video(ordinal);
   }
-  /** Checks whether the library has any flagged videos.*/
-  public Boolean hasNoFlaggedVideos(){
-    for(Video video: getVideos()){
-      if(!video.getFlag()){
-        return true;
-      }
-    }
-    return false;
+  /** Returns the number of videos in the library.*/
+  public int getNumberOfVideos() {
+    return versions.current().size();
+  }
+  /** Returns the number of videos that are currently flagged.*/
+  public int getNumberOfFlaggedVideos() {
+    return versions.current().getNumberOfFlaggedVideos();
+  }
+  /** Returns the number of videos that are not flagged and can be played.*/
+  public int getNumberOfPlayableVideos() {
+    return versions.current().getNumberOfPlayableVideos();
   }
-  /** Get a random video from the library*/
+  /** Checks whether the library has at least one video that is not flagged.*/
+  public boolean hasPlayableVideos(){
+    return getNumberOfPlayableVideos() > 0;
+  }
+  /**
+   * Get a random unflagged video from the library. Returns null if every video is flagged. The
+   * pick is a single lookup in the version's list of unflagged videos, however many are flagged.
+   */
   public Video getRandomVideo(){
-    Random rand = new Random();
-    int random = rand.nextInt(getVideos().size() - 1);
-    Video video = getVideos().get(random);
-    while (video.getFlag()) {
-      random =rand.nextInt(getVideos().size() - 1);
-      video = getVideos().get(random);
+    CatalogVersion version = versions.current();
+    int playable = version.getNumberOfPlayableVideos();
+    if (playable == 0) {
+      return null;
     }
-    return video;
+    return version.store.video(
+        version.pickPlayable(ThreadLocalRandom.current().nextInt(playable)));
   }
-  /** Returns all videos in the library that contains the search term */
+  /**
+   * Returns all unflagged videos in the library that contains the search term, in lexical title
+   * order. Flagged videos are dropped from the candidates before any title is checked.
+   */
   public ArrayList<Video> searchVideos(String searchTerm){
-    ArrayList<Video> matches = new ArrayList<Video>();
-    ArrayList<Video> allVideos = getVideos();
-    if(searchTerm != null){
-      for (int i = 0; i < allVideos.size(); i++) {
-        Video video = allVideos.get(i);
-        String name = video.getTitle();
-        if (name.toLowerCase().contains(searchTerm.toLowerCase()) && !video.getFlag()) {
-          matches.add(video);
-        }
-      }
+    if(searchTerm == null){
+      return new ArrayList<Video>();
     }
-    return matches;
+    CatalogVersion version = versions.current();
+    return videos(version, searchOrdinals(version, searchTerm));
+  }
+  /**
+   * Returns the ordinals of the version's unflagged videos whose title contains the term, in
+   * title order.
+   */
+  private int[] searchOrdinals(CatalogVersion version, String searchTerm) {
+    String term = TitleSearchIndex.fold(searchTerm);
+    VideoStore store = version.store;
+    return queryCache.get(version, "title:" + term, QueryCache.titleFeature(term),
+        ordinal -> store.foldedTitleContains(ordinal, term),
+        searched -> searched.titleIndex.search(term, searched.all()));
   }
-  /** returns all videos in the library that has the specific video tag*/
+  /**
+   * Returns all unflagged videos whose title has, for every word of the search term, a word
+   * within a small edit distance of it, in lexical title order. Meant for when
+   * {@link #searchVideos} finds nothing, e.g. because the term is misspelled.
+   */
+  public ArrayList<Video> searchVideosFuzzy(String searchTerm) {
+    CatalogVersion version = versions.current();
+    OrdinalBitmap matches = version.titleIndex.fuzzySearch(searchTerm, version.playable());
+    return videos(version, version.inTitleOrder(matches));
+  }
+  /**
+   * Returns the at most limit unflagged videos whose titles and tags match the query best,
+   * ranked with BM25, best first.
+   */
+  public ArrayList<Video> searchVideosRanked(String query, int limit) {
+    CatalogVersion version = versions.current();
+    return videos(version, version.termIndex.search(query, version.playable(), limit));
+  }
+  /** returns all unflagged videos in the library that has the specific video tag, in lexical title order*/
   public ArrayList<Video> searchVideosWithTag(String videoTag) {
-    videoTag = videoTag.toLowerCase();
-    ArrayList<Video> allVideos = getVideos();
-    ArrayList<Video> matches = new ArrayList<Video>();
-    for (int i = 0; i < allVideos.size(); i++) {
-      Video video = allVideos.get(i);
-      if (!video.getFlag()) {
-        List<String> tag = video.getTags();
-        for (int j = 0; j < tag.size(); j++) {
-          if (videoTag.equals(tag.get(j))) {
-            matches.add(video);
-          }
+    CatalogVersion version = versions.current();
+    return videos(version, tagOrdinals(version, videoTag));
+  }
+  /** Returns the ordinals of the version's unflagged videos with the tag, in title order.*/
+  private int[] tagOrdinals(CatalogVersion version, String videoTag) {
+    String tag = videoTag.toLowerCase(Locale.ROOT);
+    VideoStore store = version.store;
+    TagDictionary tags = store.getTagDictionary();
+    return queryCache.get(version, "tag:" + tag, QueryCache.tagFeature(tag),
+        ordinal -> store.hasTag(ordinal, tags.lookup(tag)),
+        searched -> searched.tagPostings(tags.lookup(tag)));
+  }
+  /** Returns the first page of at most limit videos of the library, in lexical title order.*/
+  public Page getVideosPage(int limit) {
+    return firstPage(PageCursor.Listing.ALL, "", limit);
+  }
+  /**
+   * Returns the first page of at most limit results of {@link #searchVideos}. If no title contains
+   * the term at all, flagged or not, the page instead holds every result of
+   * {@link #searchVideosFuzzy} and is marked {@link Page#similar}.
+   */
+  public Page searchVideosPage(String searchTerm, int limit) {
+    if(searchTerm == null){
+      return new Page(PageCursor.Listing.TITLE_SEARCH, "", new ArrayList<>(), 0, null, false);
+    }
+    Page page = firstPage(PageCursor.Listing.TITLE_SEARCH, searchTerm, limit);
+    if (!page.videos.isEmpty()) {
+      return page;
+    }
+    CatalogVersion version = versions.current();
+    String term = TitleSearchIndex.fold(searchTerm);
+    if (!version.titleIndex.search(term, version.all()).isEmpty()) {
+      return page;
+    }
+    OrdinalBitmap similar = version.titleIndex.fuzzySearch(searchTerm, version.playable());
+    return similar.isEmpty()
+        ? page
+        : new Page(PageCursor.Listing.TITLE_SEARCH, searchTerm,
+            videos(version, version.inTitleOrder(similar)), 0, null, true);
+  }
+  /** Returns the first page of at most limit results of {@link #searchVideosWithTag}.*/
+  public Page searchVideosWithTagPage(String videoTag, int limit) {
+    return firstPage(PageCursor.Listing.TAG_SEARCH, videoTag, limit);
+  }
+  /**
+   * Returns the page of at most limit videos following the page that handed out the cursor. The
+   * listing resumes at the cursor's position in the result it retained, without running its query
+   * again. If that result is no longer retained, the query runs on the current version (answered
+   * from the result cache when it can be) and resumes just after the title and id of the last
+   * video shown, found by binary search in its title order. Throws IllegalArgumentException if the
+   * cursor is not one the library handed out.
+   */
+  public Page nextPage(String cursor, int limit) {
+    PageCursor position = PageCursor.decode(cursor);
+    CatalogVersion version = versions.current();
+    RetainedResults.Result result = retainedResults.get(version.store, position);
+    if (result != null) {
+      return page(version.store, result, position.index, position.shown, limit);
+    }
+    result = query(version, position.listing, position.query);
+    return page(version.store, result,
+        result.indexAfter(version.store, position.afterTitle, position.afterId), position.shown,
+        limit);
+  }
+  private Page firstPage(PageCursor.Listing listing, String query, int limit) {
+    CatalogVersion version = versions.current();
+    return page(version.store, query(version, listing, query), 0, 0, limit);
+  }
+  /** Runs a listing's query on the version.*/
+  private RetainedResults.Result query(CatalogVersion version, PageCursor.Listing listing,
+      String query) {
+    if (listing == PageCursor.Listing.ALL) {
+      return new RetainedResults.Result(listing, query, version.titleOrder);
+    }
+    int[] ordinals = listing == PageCursor.Listing.TITLE_SEARCH ? searchOrdinals(version, query)
+        : tagOrdinals(version, query);
+    return new RetainedResults.Result(listing, query, ordinals);
+  }
+  /**
+   * Returns the page of at most limit videos of the result, whose ordinals are of the given store,
+   * from the given position, retaining the result for the next page's cursor if more follow.
+   */
+  private Page page(VideoStore store, RetainedResults.Result result, int from, int shown,
+      int limit) {
+    int to = Math.min(result.size(), from + Math.max(limit, 1));
+    int[] ordinals = result.ordinals(from, to);
+    String next = null;
+    if (to < result.size() && ordinals.length > 0) {
+      int last = ordinals[ordinals.length - 1];
+      next = new PageCursor(result.listing, result.query, retainedResults.retain(store, result),
+          to, store.getTitle(last), store.getVideoId(last), shown + ordinals.length).encode();
+    }
+    ArrayList<Video> videos = new ArrayList<>(ordinals.length);
+    for (int ordinal : ordinals) {
+      videos.add(store.video(ordinal));
+    }
+    return new Page(result.listing, result.query, videos, shown, next, false);
+  }
+  /** Returns the hit, miss, eviction and invalidation counts of the search result cache.*/
+  QueryCache.Stats getQueryCacheStats() {
+    return queryCache.stats();
+  }
+  /**
+   * Returns all unflagged videos matching a boolean tag query such as
+   * "#cat AND #animal NOT #google" (see {@link TagQuery}), in lexical title order. Throws
+   * IllegalArgumentException if the query is malformed.
+   */
+  public ArrayList<Video> searchVideosWithTags(String query) {
+    TagQuery tagQuery = TagQuery.parse(query);
+    CatalogVersion version = versions.current();
+    OrdinalBitmap matches = tagQuery.evaluate(version, version.store.getTagDictionary())
+        .and(version.playable());
+    return videos(version, version.inTitleOrder(matches));
+  }
+  /**
+   * Returns at most limit completions of a prefix, in lexical order of their case-folded form: the
+   * tags of unflagged videos if the prefix starts with '#', and the titles of unflagged videos
+   * otherwise, as they are displayed and each once. Titles are read from the store; the version's
+   * trie only narrows them down by their first characters.
+   */
+  public List<String> autocomplete(String prefix, int limit) {
+    CatalogVersion version = versions.current();
+    String folded = TitleSearchIndex.fold(prefix);
+    OrdinalBitmap playable = version.playable();
+    List<String> completions = new ArrayList<>();
+    if (limit <= 0) {
+      return completions;
+    }
+    if (prefix.startsWith("#")) {
+      version.tagPrefixes.complete(folded, (tag, ordinals) -> {
+        if (ordinals.intersects(playable)) {
+          completions.add(tag);
+        }
+        return completions.size() < limit;
+      });
+      return completions;
+    }
+    VideoStore store = version.store;
+    version.titlePrefixes.complete(CatalogVersion.titlePrefix(folded), (key, ordinals) -> {
+      TreeSet<String> titles = new TreeSet<>(
+          Comparator.comparing(TitleSearchIndex::fold).thenComparing(Comparator.naturalOrder()));
+      ordinals.and(playable).forEach(ordinal -> {
+        String title = store.getTitle(ordinal);
+        if (TitleSearchIndex.fold(title).startsWith(folded)) {
+          titles.add(title);
+        }
+      });
+      for (String title : titles) {
+        if (completions.size() == limit) {
+          return false;
         }
+        completions.add(title);
       }
+      return completions.size() < limit;
+    });
+    return completions;
+  }
+
+  /** The title and tags read for one video id during a {@link #reload}. */
+  static final class CatalogEntry {
+    final String title;
+    final List<String> tags;
+
+    CatalogEntry(String title, List<String> tags) {
+      this.title = title;
+      this.tags = tags;
+    }
+  }
+
+  /** One page of a video listing in lexical title order. */
+  static final class Page {
+    final PageCursor.Listing listing;
+    /** The search term or tag, or "" for the listing of all videos. */
+    final String query;
+    final ArrayList<Video> videos;
+    /** Number of videos on the pages before this one. */
+    final int offset;
+    /** Cursor for the next page, or null if this is the last one. */
+    final String nextCursor;
+    /** Whether no title contained the search term, so these are titles similar to it instead. */
+    final boolean similar;
+
+    Page(PageCursor.Listing listing, String query, ArrayList<Video> videos, int offset,
+        String nextCursor, boolean similar) {
+      this.listing = listing;
+      this.query = query;
+      this.videos = videos;
+      this.offset = offset;
+      this.nextCursor = nextCursor;
+      this.similar = similar;
+    }
+  }
+
+  /** How many videos a {@link #reload} added, removed and changed. */
+  static final class ReloadSummary {
+    final int added;
+    final int removed;
+    final int changed;
+
+    ReloadSummary(int added, int removed, int changed) {
+      this.added = added;
+      this.removed = removed;
+      this.changed = changed;
+    }
+
+    @Override
+    public String toString() {
+      return added + " added, " + removed + " removed, " + changed + " changed";
     }
-    return matches;
   }
 }
@@ -1,26 +1,114 @@
 package com.google;
 
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
 
-public class VideoPlayer {
+public class VideoPlayer implements Closeable {
 
+  private static final int AUTOCOMPLETE_LIMIT = 10;
+  private static final int RANKED_RESULTS_LIMIT = 10;
+  private static final int PAGE_SIZE = 20;
+
+  private final OutputSink out;
+  /** Reads the user's next line, e.g. the number of a search result to play. */
+  private final Supplier<String> in;
   private final VideoLibrary videoLibrary;
   private Video currentVideo = null;
   private Boolean isPaused = false;
-  private final ArrayList<VideoPlaylist> playlists = new ArrayList<>();
+  private final VideoPlaylistStore playlists = new VideoPlaylistStore();
+  /** Reload reports from the catalog watcher's thread, waiting for {@link #printNotices}. */
+  private final Queue<String> notices = new ConcurrentLinkedQueue<>();
+  /** Watches videos.txt once {@link #watchCatalog} is called, until {@link #close}. */
+  private CatalogWatcher watcher;
 
+  /** Creates a player reading from standard input and writing straight through to standard output.*/
   public VideoPlayer() {
+    this(OutputSink.writingTo(System.out), new Scanner(System.in)::nextLine);
+  }
+  /**
+   * Creates a player writing to the given sink, which its caller flushes after each command, and
+   * reading the user's answers from the given source of lines.
+   */
+  VideoPlayer(OutputSink out, Supplier<String> in) {
+    this.out = out;
+    this.in = in;
     this.videoLibrary = new VideoLibrary();
   }
+  /** Returns the sink the player writes to.*/
+  OutputSink output() {
+    return out;
+  }
+  /**
+   * Reloads videos.txt into the library whenever it changes on disk, keeping flags and playlists.
+   * Each reload is reported by the next {@link #printNotices}, so reports never land in the middle
+   * of a command's output.
+   */
+  public void watchCatalog() {
+    try {
+      close();
+      watcher = CatalogWatcher.watch(videoLibrary, notices::add);
+    } catch (IOException e) {
+      out.println("Not watching videos.txt for changes: " + e.getMessage());
+    }
+  }
+  /** Prints the reload reports that arrived since the last call; call it between commands.*/
+  public void printNotices() {
+    String notice;
+    while ((notice = notices.poll()) != null) {
+      out.println(notice);
+    }
+  }
+  /** Stops watching videos.txt.*/
+  @Override
+  public void close() throws IOException {
+    if (watcher != null) {
+      watcher.close();
+      watcher = null;
+    }
+  }
   /** Prints the number of videos in the library.*/
   public void numberOfVideos() {
-    System.out.printf("%s videos in the library%n", videoLibrary.getVideos().size());
+    out.println(videoLibrary.getNumberOfVideos() + " videos in the library");
   }
-  /** Prints the information of all available videos in the library in lexical order.*/
+  /** Prints the information of the first page of available videos in the library in lexical order.
+   * If more videos follow, the command to show the next page is printed.
+   */
   public void showAllVideos() {
-    System.out.println("Here's a list of all available videos:");
-    printVideoList(sortLexical(videoLibrary.getVideos()),false);
+    VideoLibrary.Page page = videoLibrary.getVideosPage(PAGE_SIZE);
+    out.println("Here's a list of all available videos:");
+    printVideoList(page.videos, false, 0);
+    printNextPage(page.nextCursor, "videos");
+  }
+  /** Prints the page of videos or search results that follows the page which handed out the cursor.*/
+  public void showNextPage(String cursor) {
+    VideoLibrary.Page page;
+    try {
+      page = videoLibrary.nextPage(cursor, PAGE_SIZE);
+    } catch (IllegalArgumentException e) {
+      out.println("Cannot show next page: Invalid cursor");
+      return;
+    }
+    if (page.listing != PageCursor.Listing.ALL) {
+      processRequest(page.videos, page.offset, page.nextCursor, page.query);
+    }
+    else if (page.videos.isEmpty()) {
+      out.println("No more videos");
+    }
+    else {
+      out.println("Here are more of the available videos:");
+      printVideoList(page.videos, false, page.offset);
+      printNextPage(page.nextCursor, "videos");
+    }
+  }
+  /** Prints the command that shows the next page, if there is one.*/
+  private void printNextPage(String cursor, String what) {
+    if (cursor != null) {
+      out.println("More " + what + " available: NEXT_PAGE " + cursor);
+    }
   }
   /** Plays the video that corresponds to the specific video ID if it exists and is not flagged.
    * If a video is currently being played, it is stopped and the requested video is played(if it exists and is not flagged).
@@ -28,69 +116,69 @@ public class VideoPlayer {
   public void playVideo(String videoId) {
     Video video = videoLibrary.getVideo(videoId);
     if(video == null){
-      System.out.println("Cannot play video: Video does not exist");
+      out.println("Cannot play video: Video does not exist");
     }
     else if(video.getFlag()){
-      System.out.println("Cannot play video: Video is currently flagged (reason: "+video.getFlaggedReason()+")");
+      out.println("Cannot play video: Video is currently flagged (reason: "+video.getFlaggedReason()+")");
     }
     else {
       if (currentVideo != null) {
-        System.out.println("Stopping video: " + currentVideo.getTitle());
+        out.println("Stopping video: " + currentVideo.getTitle());
       }
       currentVideo = video;
-      System.out.println("Playing video: " + currentVideo.getTitle());
+      out.println("Playing video: " + currentVideo.getTitle());
       isPaused = false;
     }
   }
   /** If there is a video currently playing, it is stopped.*/
   public void stopVideo() {
     if(currentVideo == null){
-      System.out.println("Cannot stop video: No video is currently playing");
+      out.println("Cannot stop video: No video is currently playing");
     }
     else{
-      System.out.println("Stopping video: "+ currentVideo.getTitle());
+      out.println("Stopping video: "+ currentVideo.getTitle());
       currentVideo = null;
       isPaused = false;
     }
   }
   /** Plays a random video from the video library (if there is a video currently playing, then that is stopped first).*/
   public void playRandomVideo() {
-    if(videoLibrary.hasNoFlaggedVideos()) {
+    if(videoLibrary.hasPlayableVideos()) {
       if (currentVideo != null) {
-        System.out.println("Stopping video: " + currentVideo.getTitle());
+        out.println("Stopping video: " + currentVideo.getTitle());
       }
       currentVideo = videoLibrary.getRandomVideo();
-      System.out.println("Playing video: " + currentVideo.getTitle());
+      out.println("Playing video: " + currentVideo.getTitle());
     }
     else{
-      System.out.println("No videos available");
+      out.println("No videos available");
     }
   }
   /** Pauses the current video if a video is currently playing. */
   public void pauseVideo() {
     if(currentVideo == null){
-      System.out.println("Cannot pause video: No video is currently playing");
+      out.println("Cannot pause video: No video is currently playing");
     }
     else if(isPaused){
-      System.out.println("Video already paused: "+ currentVideo.getTitle());
+      out.println("Video already paused: "+ currentVideo.getTitle());
     }
     else{
-      System.out.println("Pausing video: " + currentVideo.getTitle());
+      out.println("Pausing video: " + currentVideo.getTitle());
       isPaused = true;
     }
   }
   /** Continues the current video if there is a current video that is paused. */
   public void continueVideo() {
     if(currentVideo == null){
-      System.out.println("Cannot continue video: No video is currently playing");
+      out.println("Cannot continue video: No video is currently playing");
     }
     else {
       if (isPaused) {
         isPaused = false;
-        System.out.println("Continuing video: " + currentVideo.getTitle());
+        out.println("Continuing video: " + currentVideo.getTitle());
       }
       else {
-        System.out.println("Cannot continue video: Video is not paused");
+        out.println("Cannot continue video: Video is not paused");
       }
     }
   }
@@ -101,29 +189,24 @@ public class VideoPlayer {
       if(isPaused){
         info = info + " - PAUSED";
       }
-      System.out.println(info);
+      out.println(info);
     }
     else{
-      System.out.println("No video is currently playing");
+      out.println("No video is currently playing");
     }
   }
   /** Returns the playlist that matches the name that is passed as a parameter.*/
   private VideoPlaylist getPlaylist(String name){
-    for(VideoPlaylist list: playlists){
-      if(list.matches(name)){
-        return list;
-      }
-    }
-    return null;
+    return playlists.getPlaylist(name);
   }
   /** Creates a playlist with the name that is passed as a parameter, if there is no other playlists with the same name.*/
   public void createPlaylist(String playlistName) {
     if(getPlaylist(playlistName) == null) {
-      playlists.add(new VideoPlaylist(playlistName));
-      System.out.println("Successfully created new playlist: " + playlistName);
+      playlists.savePlaylist(new VideoPlaylist(playlistName));
+      out.println("Successfully created new playlist: " + playlistName);
     }
     else{
-      System.out.println("Cannot create playlist: A playlist with the same name already exists.");
+      out.println("Cannot create playlist: A playlist with the same name already exists.");
     }
   }
   /** The specific video is added to the specific playlist if it exists.*/
@@ -131,50 +214,54 @@ public class VideoPlayer {
     VideoPlaylist playlist = getPlaylist(playlistName);
     Video video = videoLibrary.getVideo(videoId);
     if(playlist == null){
-      System.out.println("Cannot add video to "+ playlistName +": Playlist does not exist");
+      out.println("Cannot add video to "+ playlistName +": Playlist does not exist");
     }
     else{
-      playlist.addVideo(playlistName, video);
+      playlist.addVideo(out, playlistName, video);
     }
   }
   /** Prints the playlist names in lexical order if at least one playlist exists. */
   public void showAllPlaylists() {
     if(playlists.isEmpty()){
-      System.out.println("No playlists exist yet");
+      out.println("No playlists exist yet");
     }
     else{
-      System.out.println("Showing all playlists:");
-      String[] playlist_names = sortPlaylistNamesInLexical();
-      for(int i=0;i<playlists.size();i++){
-        System.out.println("  "+ playlist_names[i]);
+      out.println("Showing all playlists:");
+      for(String name: playlists.getPlaylistNames()){
+        out.println("  "+ name);
       }
     }
   }
-  /** Returns the sorted list of playlist names (lexical order)*/
-  private String[] sortPlaylistNamesInLexical(){
-    String[] playlist_names = new String[playlists.size()];
-    for(int i=0; i<playlists.size();i++){
-      playlist_names[i] = playlists.get(i).getName();
+  /** Prints one page of at most limit playlist names in lexical order, starting after the given name (null for the first page).
+   * If more playlists follow, the command to fetch the next page is printed.
+   */
+  public void showAllPlaylists(int limit, String startAfter) {
+    if(playlists.isEmpty()){
+      out.println("No playlists exist yet");
+      return;
     }
-    for(int i = 0; i < playlists.size()-1; ++i) {
-      for (int j = i + 1; j < playlists.size(); ++j) {
-        if (playlist_names[i].compareTo(playlist_names[j]) > 0) {
-          String temp = playlist_names[i];
-          playlist_names[i] = playlist_names[j];
-          playlist_names[j] = temp;
-        }
-      }
+    List<String> page = playlists.getPlaylistNames(startAfter, limit);
+    if(page.isEmpty()){
+      out.println("No more playlists");
+      return;
+    }
+    out.println("Showing all playlists:");
+    for(String name: page){
+      out.println("  "+ name);
+    }
+    String last = page.get(page.size() - 1);
+    if(playlists.getPlaylistNames().higher(last) != null){
+      out.println("More playlists available: SHOW_ALL_PLAYLISTS " + limit + " " + last);
     }
-    return playlist_names;
   }
   /** if the specific playlist exists, then its playlist information is displayed. */
   public void showPlaylist(String playlistName) {
     VideoPlaylist playlist = getPlaylist(playlistName);
     if( playlist == null){
-      System.out.println("Cannot show playlist "+ playlistName+": Playlist does not exist");
+      out.println("Cannot show playlist "+ playlistName+": Playlist does not exist");
     }
     else {
-      playlist.showPlaylist(playlistName);
+      playlist.showPlaylist(out, playlistName);
     }
   }
   /** Removes the specific video from the specific playlist if both exists. */
@@ -182,94 +269,99 @@ public class VideoPlayer {
     VideoPlaylist playlist = getPlaylist(playlistName);
     Video video = videoLibrary.getVideo(videoId);
     if( playlist == null){
-      System.out.println("Cannot remove video from "+ playlistName+": Playlist does not exist");
+      out.println("Cannot remove video from "+ playlistName+": Playlist does not exist");
     }
     else if( video == null){
-      System.out.println("Cannot remove video from "+ playlistName+": Video does not exist");
+      out.println("Cannot remove video from "+ playlistName+": Video does not exist");
     }
     else{
-      playlist.removeVideo(playlistName, video);
+      playlist.removeVideo(out, playlistName, video);
     }
   }
   /** All videos from the specific playlist is removed if the playlist exists. */
   public void clearPlaylist(String playlistName) {
     VideoPlaylist playlist = getPlaylist(playlistName);
     if( playlist == null){
-      System.out.println("Cannot clear playlist "+ playlistName+": Playlist does not exist");
+      out.println("Cannot clear playlist "+ playlistName+": Playlist does not exist");
     }
     else{
-      playlist.clearPlaylist(playlistName);
+      playlist.clearPlaylist(out, playlistName);
     }
   }
   /** Deletes the specific playlist if it exists.*/
   public void deletePlaylist(String playlistName) {
     VideoPlaylist playlist = getPlaylist(playlistName);
     if( playlist == null){
-      System.out.println("Cannot delete playlist "+ playlistName+": Playlist does not exist");
+      out.println("Cannot delete playlist "+ playlistName+": Playlist does not exist");
     }
     else{
-      playlists.remove(getPlaylist(playlistName));
-      System.out.println("Deleted playlist: "+playlistName);
-    }
-  }
-  /** Returns the sorted list of videos (sorts in Lexical order) */
-  private ArrayList<Video> sortLexical(ArrayList<Video> videos){
-    for (int i = 0; i < videos.size() - 1; i++) {
-      for (int j = i + 1; j < videos.size(); j++) {
-        if (videos.get(i).getTitle().compareTo(videos.get(j).getTitle()) > 0) {
-          Video temp = videos.get(i);
-          videos.set(i, videos.get(j));
-          videos.set(j, temp);
-        }
-      }
+      playlists.deletePlaylist(playlistName);
+      out.println("Deleted playlist: "+playlistName);
     }
-    return videos;
   }
-  /** Searches for all videos that contain the search term in its name and processes the request.*/
+  /** Searches for all videos that contain the search term in its name and processes the request.
+   * If no title contains it, titles with words close to the term's words are offered instead.
+   */
   public void searchVideos(String searchTerm) {
-    ArrayList<Video> matches = sortLexical(videoLibrary.searchVideos(searchTerm));
-    processRequest(matches,searchTerm);
+    VideoLibrary.Page page = videoLibrary.searchVideosPage(searchTerm, PAGE_SIZE);
+    String header = page.similar
+        ? "No exact matches for " + searchTerm + ", here are similar titles:"
+        : "Here are the results for " + searchTerm + ":";
+    processRequest(page.videos, 0, page.nextCursor, searchTerm, header);
+  }
+  /** Searches for the videos whose titles and tags match the query best, ranked by relevance, and processes the request.*/
+  public void searchVideosRanked(String query) {
+    ArrayList<Video> matches = videoLibrary.searchVideosRanked(query, RANKED_RESULTS_LIMIT);
+    processRequest(matches, query);
   }
   /** If there were search results(matches), they are displayed and the user gets to pick which one to play.
    * The video that is picked by the user is then played.
    */
   private void processRequest(ArrayList<Video> matches, String term) {
+    processRequest(matches, 0, null, term);
+  }
+  /** Processes one page of search results, the first one if offset is 0. The results are numbered from offset + 1,
+   * and if more results follow, the command to show the next page is printed before the user picks a video.
+   */
+  private void processRequest(ArrayList<Video> matches, int offset, String nextCursor, String term) {
+    processRequest(matches, offset, nextCursor, term,
+        (offset == 0 ? "Here are the results for " : "Here are more results for ") + term + ":");
+  }
+  /** Processes one page of search results as above, printing the given header before them.*/
+  private void processRequest(ArrayList<Video> matches, int offset, String nextCursor, String term,
+      String header) {
     if (matches.isEmpty()) {
-      System.out.println("No search results for " + term);
+      out.println((offset == 0 ? "No search results for " : "No more search results for ") + term);
     }
     else {
-      System.out.println("Here are the results for " + term + ":");
-      printVideoList(matches, true);
-      Scanner sc = new Scanner(System.in);
-      System.out.println("Would you like to play any of the above? If yes, specify the number of the video.\nIf your answer is not a valid number, we will assume it's a no.");
-      playRequestedVideo(sc.nextLine(), matches);
+      out.println(header);
+      printVideoList(matches, true, offset);
+      printNextPage(nextCursor, "results");
+      out.println("Would you like to play any of the above? If yes, specify the number of the video.\nIf your answer is not a valid number, we will assume it's a no.");
+      out.flush();
+      playRequestedVideo(in.get(), matches, offset);
     }
   }
   /** The video choice that is picked by the user is identified, and then it is played */
-  private void playRequestedVideo(String line, ArrayList<Video> videos){
+  private void playRequestedVideo(String line, ArrayList<Video> videos, int offset){
       if(onlyNumbers(line)) {
-        int request = Integer.parseInt(line);
+        int request = Integer.parseInt(line) - offset;
         if (request >= 1 && request <= videos.size()) {
           playVideo(videos.get(request-1).getVideoId());
         }
       }
   }
-  /** Prints the information of the videos in the list. The list is an ordered list if the passed parameter:"ordered" is True. */
-  private void printVideoList(ArrayList<Video> videos, Boolean ordered){
-    String info ="";
+  /** Prints the information of the videos in the list. The list is an ordered list, numbered from offset + 1, if the passed parameter:"ordered" is True. */
+  private void printVideoList(ArrayList<Video> videos, Boolean ordered, int offset){
     for(int i=0; i<videos.size();i++) {
       Video video =videos.get(i);
-      if (ordered) {
-        info = i + 1 + ") ";
-      }
-      info += video.getInfo("");
-      System.out.println(info);
+      out.println(video.getInfo(ordered ? offset + i + 1 + ") " : ""));
     }
   }
   /** Checks if the line only has numbers.*/
   private Boolean onlyNumbers(String line){
     if(!(line.equals(""))) {
-      char[] characters = line.toLowerCase().toCharArray();
+      char[] characters = line.toLowerCase(Locale.ROOT).toCharArray();
       for (char c : characters) {
         if (c >= 'a' && c <= 'z') {
           return false;
@@ -281,22 +373,49 @@ public class VideoPlayer {
   }
   /** Searches for all videos that has the specific video tag and processes the request.*/
   public void searchVideosWithTag(String videoTag) {
-    ArrayList<Video> matches = sortLexical(videoLibrary.searchVideosWithTag(videoTag));
-    processRequest(matches, videoTag);
+    VideoLibrary.Page page = videoLibrary.searchVideosWithTagPage(videoTag, PAGE_SIZE);
+    processRequest(page.videos, 0, page.nextCursor, videoTag);
+  }
+  /** Searches for all videos matching a boolean tag query (e.g. "#cat AND #animal NOT #google") and processes the request.*/
+  public void searchVideosWithTags(String query) {
+    ArrayList<Video> matches;
+    try {
+      matches = videoLibrary.searchVideosWithTags(query);
+    } catch (IllegalArgumentException e) {
+      out.println("Cannot search for " + query + ": " + e.getMessage());
+      return;
+    }
+    processRequest(matches, query);
+  }
+  /** Prints the first titles (or tags, if the prefix starts with #) in lexical order that start with the prefix.*/
+  public void autocomplete(String prefix) {
+    List<String> completions = videoLibrary.autocomplete(prefix, AUTOCOMPLETE_LIMIT);
+    if(completions.isEmpty()){
+      out.println("No completions for " + prefix);
+      return;
+    }
+    out.println("Completions for " + prefix + ":");
+    for(String completion: completions){
+      out.println("  " + completion);
+    }
+  }
+  /** Prints the statistics of the library's search result cache.*/
+  public void showCacheStats() {
+    out.println("Search cache: " + videoLibrary.getQueryCacheStats());
   }
   /** Flags the specific video if it exists (no specific reason given).
    * If it is currently being played, then its is stopped first.
    */
   public void flagVideo(String videoId) {
     Video video = videoLibrary.getVideo(videoId);
-    if(video ==currentVideo){
+    if(Objects.equals(video, currentVideo)){
       stopVideo();
     }
     if(video!= null){
-      video.flagVideo();
+      reportFlag(video, video.flagVideo());
     }
     else {
-      System.out.println("Cannot flag video: Video does not exist");
+      out.println("Cannot flag video: Video does not exist");
     }
   }
   /** Flags the specific video if it exists (reason is given)
@@ -304,24 +423,36 @@ public class VideoPlayer {
    */
   public void flagVideo(String videoId, String reason) {
     Video video = videoLibrary.getVideo(videoId);
-    if(video==currentVideo){
+    if(Objects.equals(video, currentVideo)){
       stopVideo();
     }
     if(video!= null){
-      video.flagVideo(reason);
+      reportFlag(video, video.flagVideo(reason));
     }
     else {
-      System.out.println("Cannot flag video: Video does not exist");
+      out.println("Cannot flag video: Video does not exist");
     }
   }
   /** Removes the flag from the specific video(if it exists) to allow it to be played later.*/
   public void allowVideo(String videoId) {
     Video video = videoLibrary.getVideo(videoId);
     if(video == null){
-      System.out.println("Cannot remove flag from video: Video does not exist");
+      out.println("Cannot remove flag from video: Video does not exist");
     }
-    else {
-      video.allowVideo();
+    else if(video.allowVideo()){
+      out.println("Successfully removed flag from video: "+ video.getTitle());
+    }
+    else{
+      out.println("Cannot remove flag from video: Video is not flagged");
+    }
+  }
+  /** Prints whether the video could be flagged or was flagged already.*/
+  private void reportFlag(Video video, boolean flagged) {
+    if(flagged){
+      out.println("Successfully flagged video: " + video.getTitle() + " (reason: " + video.getFlaggedReason() + ")");
+    }
+    else{
+      out.println("Cannot flag video: Video is already flagged");
     }
   }
 }
\ No newline at end of file
@@ -0,0 +1,104 @@
+package com.google;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/** Store for video playlists, keyed by playlist name without regard to case. */
+class VideoPlaylistStore {
+
+  private final HashMap<Key, VideoPlaylist> playlists = new HashMap<>();
+  /** Display names of all stored playlists, in lexical order. */
+  private final TreeSet<String> names = new TreeSet<>();
+
+  /** Returns the playlist with the given name (in any case), or null if there is none. */
+  public VideoPlaylist getPlaylist(String playlistName) {
+    return playlists.get(new Key(playlistName));
+  }
+
+  /** Saves a playlist, replacing any playlist whose name differs from its name only in case. */
+  public void savePlaylist(VideoPlaylist playlist) {
+    VideoPlaylist replaced = playlists.put(playlist.getKey(), playlist);
+    if (replaced != null) {
+      names.remove(replaced.getName());
+    }
+    names.add(playlist.getName());
+  }
+
+  /** Deletes the playlist with the given name (in any case). Returns the deleted playlist, or null. */
+  public VideoPlaylist deletePlaylist(String playlistName) {
+    VideoPlaylist deleted = playlists.remove(new Key(playlistName));
+    if (deleted != null) {
+      names.remove(deleted.getName());
+    }
+    return deleted;
+  }
+
+  /** Returns a read-only view of all playlist names, in lexical order. */
+  public NavigableSet<String> getPlaylistNames() {
+    return Collections.unmodifiableNavigableSet(names);
+  }
+
+  /**
+   * Returns up to limit playlist names in lexical order, starting after the given name (or from
+   * the first name if startAfter is null).
+   */
+  public List<String> getPlaylistNames(String startAfter, int limit) {
+    NavigableSet<String> tail = startAfter == null ? names : names.tailSet(startAfter, false);
+    List<String> page = new ArrayList<>(Math.min(limit, tail.size()));
+    for (String name : tail) {
+      if (page.size() == limit) {
+        break;
+      }
+      page.add(name);
+    }
+    return page;
+  }
+
+  public boolean isEmpty() {
+    return playlists.isEmpty();
+  }
+
+  /**
+   * A playlist name that equals and hashes like any name differing from it only in case. The
+   * hash is folded from the name one char at a time, so neither storing nor looking up a
+   * playlist makes a lower-case copy of its name.
+   */
+  static final class Key {
+    private final String name;
+    private final int hash;
+
+    Key(String name) {
+      this.name = name;
+      int hash = 0;
+      for (int i = 0; i < name.length(); i++) {
+        hash = 31 * hash + fold(name.charAt(i));
+      }
+      this.hash = hash;
+    }
+
+    /** Folds a char the same way String.regionMatches does when it ignores case. */
+    private static char fold(char c) {
+      return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return hash == other.hash
+          && name.length() == other.name.length()
+          && name.regionMatches(true, 0, other.name, 0, name.length());
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
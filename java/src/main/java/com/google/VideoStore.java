@@ -0,0 +1,169 @@
+package com.google;
+
+/**
+ * Backing store for the videos of a {@link VideoLibrary}.
+ *
+ * <p>Each stored video is an immutable record with a dense ordinal; {@link Video} instances are
+ * flyweights over a store and an ordinal, created on demand. Records are only ever appended, so a
+ * changed video is stored again under a new ordinal and ordinals are never reused within a store.
+ *
+ * <p>Which records make up the catalog, and their flag state, is described by the current
+ * {@link CatalogVersion}, published by the store's {@link CatalogVersions}. When most of a store's
+ * records are dead, the catalog moves on to a {@link #successor} store that shares the same
+ * CatalogVersions, so the current version may be over a newer store than the one it is asked of.
+ */
+abstract class VideoStore {
+
+  /** System property selecting the backing store: "heap" (the default) or "offheap". */
+  static final String STORE_PROPERTY = "videos.store";
+
+  /** Returned by lookups for ids that are not in the catalog. */
+  static final int NOT_FOUND = -1;
+
+  private final TagDictionary tagDictionary;
+  private final CatalogVersions versions;
+  private final RenderedLines renderedLines = new RenderedLines(this);
+
+  /** Creates the first store of a catalog, whose current version is empty. */
+  VideoStore(TagDictionary tagDictionary) {
+    this.tagDictionary = tagDictionary;
+    this.versions = new CatalogVersions(this);
+  }
+
+  /** Creates an empty store that takes over the given catalog from an earlier store. */
+  VideoStore(TagDictionary tagDictionary, CatalogVersions versions) {
+    this.tagDictionary = tagDictionary;
+    this.versions = versions;
+  }
+
+  /** Creates the store selected by the videos.store system property. */
+  static VideoStore create(TagDictionary tagDictionary) {
+    String kind = System.getProperty(STORE_PROPERTY, "heap");
+    if (kind.equalsIgnoreCase("offheap")) {
+      return new OffHeapVideoStore(tagDictionary);
+    }
+    return new HeapVideoStore(tagDictionary);
+  }
+
+  /**
+   * Returns a new, empty store of the same kind, with a new, empty dictionary, for the same
+   * catalog; see {@link CatalogVersion#compact}.
+   */
+  abstract VideoStore successor();
+
+  /**
+   * Appends a video record and returns its ordinal. The record is not part of the catalog until a
+   * version containing it is published. Callers must hold the monitor of {@link #versions}.
+   */
+  abstract int add(String title, String videoId, int[] tagIds);
+
+  /** Returns one more than the highest ordinal handed out so far. */
+  abstract int ordinalLimit();
+
+  abstract String getTitle(int ordinal);
+
+  /** Returns the title folded with {@link TitleSearchIndex#fold}. */
+  abstract String getFoldedTitle(int ordinal);
+
+  /** Checks whether the folded title contains the (folded) term, reading the title in place. */
+  abstract boolean foldedTitleContains(int ordinal, String term);
+
+  abstract String getVideoId(int ordinal);
+
+  /** Compares the video's title to the given one with the semantics of String.compareTo. */
+  abstract int compareTitle(int ordinal, String title);
+
+  /** Compares the video's id to the given one with the semantics of String.compareTo. */
+  abstract int compareVideoId(int ordinal, String videoId);
+
+  /**
+   * Returns the tag ids of the video. The array must not be modified. The off-heap store copies
+   * it out of its column, so code that runs per query reads ids with {@link #tagId} instead.
+   */
+  abstract int[] getTagIds(int ordinal);
+
+  /** Returns the number of tags of the video. */
+  abstract int tagCount(int ordinal);
+
+  /** Returns the id of the video's tag at the given index. */
+  abstract int tagId(int ordinal, int index);
+
+  /** Compares two titles with the semantics of String.compareTo. */
+  abstract int compareTitles(int ordinal, int otherOrdinal);
+
+  /** Compares two video ids with the semantics of String.compareTo. */
+  abstract int compareVideoIds(int ordinal, int otherOrdinal);
+
+  /** Returns the String.hashCode of the video's id. */
+  abstract int hashVideoId(int ordinal);
+
+  /** Checks whether the video's id equals the given id. */
+  abstract boolean videoIdEquals(int ordinal, String videoId);
+
+  /** Compares two videos by title, then by id, as {@link Video#TITLE_ORDER} does. */
+  int compareTitleOrder(int ordinal, int otherOrdinal) {
+    int order = compareTitles(ordinal, otherOrdinal);
+    return order != 0 ? order : compareVideoIds(ordinal, otherOrdinal);
+  }
+
+  /** Compares a video to the given title and id, as {@link #compareTitleOrder} would. */
+  int compareTitleOrder(int ordinal, String title, String videoId) {
+    int order = compareTitle(ordinal, title);
+    return order != 0 ? order : compareVideoId(ordinal, videoId);
+  }
+
+  /** Checks whether the video carries the tag with the given id. */
+  boolean hasTag(int ordinal, int tagId) {
+    for (int i = tagCount(ordinal) - 1; i >= 0; i--) {
+      if (tagId(ordinal, i) == tagId) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Checks whether the video's tag ids are the given ones, in the same order. */
+  boolean tagIdsEqual(int ordinal, int[] tagIds) {
+    if (tagCount(ordinal) != tagIds.length) {
+      return false;
+    }
+    for (int i = 0; i < tagIds.length; i++) {
+      if (tagId(ordinal, i) != tagIds[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  TagDictionary getTagDictionary() {
+    return tagDictionary;
+  }
+
+  /** Returns a flyweight for the video with the given ordinal. */
+  Video video(int ordinal) {
+    return new Video(this, ordinal);
+  }
+
+  /**
+   * Returns the display line of the video with the given ordinal, followed by the given flag
+   * reason unless it is null.
+   */
+  String renderedLine(int ordinal, String reason) {
+    return renderedLines.line(ordinal, reason);
+  }
+
+  /** Returns the publisher of the catalog this store holds the records of. */
+  CatalogVersions versions() {
+    return versions;
+  }
+
+  /** Returns the current version of the catalog, which may be over a successor of this store. */
+  CatalogVersion version() {
+    return versions.current();
+  }
+
+  /** Called when a version over this store is published, to drop what it made stale. */
+  void published(CatalogVersion version) {
+    renderedLines.forget(version);
+  }
+}
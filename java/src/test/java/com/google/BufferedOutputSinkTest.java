@@ -0,0 +1,84 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class BufferedOutputSinkTest {
+
+  @Test
+  public void testWritesNothingUntilFlushed() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BufferedOutputSink sink = new BufferedOutputSink(out, StandardCharsets.UTF_8);
+    sink.print("YT> ");
+    sink.println("Playing video: \u00dcmlaut");
+    assertEquals(0, out.size());
+
+    sink.flush();
+    assertEquals("YT> Playing video: \u00dcmlaut" + System.lineSeparator(),
+        out.toString(StandardCharsets.UTF_8));
+    sink.flush();
+    assertEquals("YT> Playing video: \u00dcmlaut" + System.lineSeparator(),
+        out.toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testPlayersWriteToTheirOwnSinksConcurrently(@TempDir Path snapshotDir)
+      throws Exception {
+    String configured = System.setProperty(CatalogSnapshot.SNAPSHOT_PROPERTY,
+        snapshotDir.resolve("videos.snapshot").toString());
+    try {
+      runPlayersConcurrently();
+    } finally {
+      TestBase.restoreSnapshotProperty(configured);
+    }
+  }
+
+  private void runPlayersConcurrently() throws Exception {
+    int players = 4;
+    List<ByteArrayOutputStream> outputs = new ArrayList<>();
+    List<CommandParser> parsers = new ArrayList<>();
+    for (int i = 0; i < players; i++) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      outputs.add(out);
+      parsers.add(new CommandParser(new VideoPlayer(new BufferedOutputSink(out),
+          new Scanner("")::nextLine)));
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(players);
+    try {
+      List<Future<?>> runs = new ArrayList<>();
+      for (int i = 0; i < players; i++) {
+        CommandParser parser = parsers.get(i);
+        String playlist = "playlist_" + i;
+        runs.add(executor.submit(() -> {
+          for (int run = 0; run < 50; run++) {
+            parser.executeCommand(List.of("NUMBER_OF_VIDEOS"));
+          }
+          parser.executeCommand(List.of("CREATE_PLAYLIST", playlist));
+        }));
+      }
+      for (Future<?> run : runs) {
+        run.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    for (int i = 0; i < players; i++) {
+      String[] lines = outputs.get(i).toString().split("\\r?\\n");
+      assertEquals(51, lines.length);
+      assertEquals("5 videos in the library", lines[0]);
+      assertEquals("Successfully created new playlist: playlist_" + i, lines[50]);
+    }
+  }
+}
@@ -0,0 +1,173 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CatalogSnapshotTest {
+
+  private static final TagDictionary TAGS = new TagDictionary();
+  private static final HeapVideoStore STORE = new HeapVideoStore(TAGS);
+  private static final List<Video> VIDEOS = List.of(
+      video("Amazing Cats", "amazing_cats_video_id", "#cat", "#animal"),
+      video("Funny Dogs", "funny_dogs_video_id", "#dog", "#animal"),
+      video("Video about nothing", "nothing_video_id"));
+
+  private static Video video(String title, String videoId, String... tags) {
+    int[] tagIds = new int[tags.length];
+    for (int i = 0; i < tags.length; i++) {
+      tagIds[i] = TAGS.intern(tags[i]);
+    }
+    return STORE.video(STORE.add(title, videoId, tagIds));
+  }
+
+  /** Returns a sink that adds each video to the store and collects it. */
+  private static VideoCatalogLoader.Sink collect(VideoStore store, List<Video> videos) {
+    return (title, videoId, tagIds) -> videos.add(store.video(store.add(title, videoId, tagIds)));
+  }
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  public void testRoundTripSharesTagStrings() throws IOException {
+    var snapshot = tempDir.resolve("videos.txt.snapshot");
+    CatalogSnapshot.write(snapshot, 1234L, 99L, TAGS, VIDEOS);
+
+    var tags = new TagDictionary();
+    var loaded = new ArrayList<Video>();
+    var store = new HeapVideoStore(tags);
+    assertTrue(CatalogSnapshot.read(snapshot, 1234L, 99L, tags, collect(store, loaded)));
+
+    assertEquals(3, loaded.size());
+    for (int i = 0; i < VIDEOS.size(); i++) {
+      assertEquals(VIDEOS.get(i).getTitle(), loaded.get(i).getTitle());
+      assertEquals(VIDEOS.get(i).getVideoId(), loaded.get(i).getVideoId());
+      assertEquals(VIDEOS.get(i).getTags(), loaded.get(i).getTags());
+    }
+    assertEquals(3, tags.size());
+    assertEquals(loaded.get(0).getTagIds()[1], loaded.get(1).getTagIds()[1]);
+    assertSame(loaded.get(0).getTags().get(1), loaded.get(1).getTags().get(1));
+  }
+
+  @Test
+  public void testRejectsStaleOrCorruptSnapshot() throws IOException {
+    var snapshot = tempDir.resolve("videos.txt.snapshot");
+    var tags = new TagDictionary();
+    var loaded = new ArrayList<Video>();
+    var sink = collect(new HeapVideoStore(tags), loaded);
+    assertFalse(CatalogSnapshot.read(snapshot, 1234L, 99L, tags, sink));
+
+    CatalogSnapshot.write(snapshot, 1234L, 99L, TAGS, VIDEOS);
+    assertFalse(CatalogSnapshot.read(snapshot, 5678L, 99L, tags, sink));
+    assertFalse(CatalogSnapshot.read(snapshot, 1234L, 100L, tags, sink));
+
+    byte[] bytes = Files.readAllBytes(snapshot);
+    bytes[bytes.length - 1] ^= 1;
+    Files.write(snapshot, bytes);
+    assertFalse(CatalogSnapshot.read(snapshot, 1234L, 99L, tags, sink));
+    assertTrue(loaded.isEmpty());
+  }
+
+  @Test
+  public void testConcurrentWritersEachUseTheirOwnTempFile() throws Exception {
+    var snapshot = tempDir.resolve("videos.txt.snapshot");
+    var pool = Executors.newFixedThreadPool(4);
+    try {
+      var writes = new ArrayList<Future<?>>();
+      for (int i = 0; i < 16; i++) {
+        writes.add(pool.submit(() -> {
+          CatalogSnapshot.write(snapshot, 1234L, 99L, TAGS, VIDEOS);
+          return null;
+        }));
+      }
+      for (Future<?> write : writes) {
+        write.get();
+      }
+    } finally {
+      pool.shutdown();
+    }
+
+    var tags = new TagDictionary();
+    var loaded = new ArrayList<Video>();
+    assertTrue(CatalogSnapshot.read(snapshot, 1234L, 99L, tags,
+        collect(new HeapVideoStore(tags), loaded)));
+    assertEquals(3, loaded.size());
+    try (var files = Files.list(tempDir)) {
+      assertEquals(List.of(snapshot), files.collect(Collectors.toList()));
+    }
+  }
+
+  @Test
+  public void testRejectsMalformedSnapshotThatPassesItsChecksum() throws IOException {
+    var snapshot = tempDir.resolve("videos.txt.snapshot");
+    var tags = new TagDictionary();
+    var loaded = new ArrayList<Video>();
+    var sink = collect(new HeapVideoStore(tags), loaded);
+    // One tag "#a", then a video whose tag index is out of range, a negative string length, and
+    // a payload that ends mid-string.
+    byte[][] payloads = {
+        ByteBuffer.allocate(22).putInt(2).put("#a".getBytes(StandardCharsets.UTF_8))
+            .putInt(0).putInt(0).putInt(1).putInt(7).array(),
+        ByteBuffer.allocate(4).putInt(-5).array(),
+        ByteBuffer.allocate(6).putInt(100).putShort((short) 0).array()};
+    int[][] counts = {{1, 1}, {0, 1}, {1, 0}};
+    for (int i = 0; i < payloads.length; i++) {
+      writeRaw(snapshot, counts[i][0], counts[i][1], payloads[i]);
+      assertFalse(CatalogSnapshot.read(snapshot, 1234L, 99L, tags, sink));
+    }
+    assertTrue(loaded.isEmpty());
+    assertEquals(0, tags.size());
+  }
+
+  /** Writes a snapshot with a valid header and checksum around the given payload. */
+  private static void writeRaw(Path snapshot, int videoCount, int tagCount, byte[] payload)
+      throws IOException {
+    var crc = new CRC32();
+    crc.update(payload);
+    var file = ByteBuffer.allocate(40 + payload.length)
+        .putInt(0x59545643)
+        .putInt(1)
+        .putLong(1234L)
+        .putLong(99L)
+        .putInt(videoCount)
+        .putInt(tagCount)
+        .putLong(crc.getValue())
+        .put(payload);
+    Files.write(snapshot, file.array());
+  }
+
+  @Test
+  public void testSnapshotIsNotWrittenNextToTheCatalog() throws IOException {
+    var configured = System.clearProperty(CatalogSnapshot.SNAPSHOT_PROPERTY);
+    try {
+      var catalog = tempDir.resolve("videos.txt").toUri().toURL();
+      var snapshot = CatalogSnapshot.locate(catalog);
+      assertNotEquals(tempDir, snapshot.getParent());
+      assertTrue(snapshot.startsWith(Path.of(System.getProperty("user.home"))));
+      assertEquals(snapshot, CatalogSnapshot.locate(catalog));
+      assertNotEquals(snapshot,
+          CatalogSnapshot.locate(tempDir.resolve("other.txt").toUri().toURL()));
+    } finally {
+      if (configured != null) {
+        System.setProperty(CatalogSnapshot.SNAPSHOT_PROPERTY, configured);
+      }
+    }
+  }
+}
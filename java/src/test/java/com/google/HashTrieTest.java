@@ -0,0 +1,97 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class HashTrieTest {
+
+  /** A key whose hash is chosen by the test, so that keys can be made to collide. */
+  private static final class Key {
+
+    final int id;
+    final int hash;
+
+    Key(int id, int hash) {
+      this.id = id;
+      this.hash = hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Key && ((Key) other).id == id;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  private static void assertSameMap(Map<Key, Integer> expected, HashTrie<Key, Integer> actual) {
+    assertEquals(expected.size(), actual.size());
+    Map<Key, Integer> entries = new HashMap<>();
+    actual.forEach(entries::put);
+    assertEquals(expected, entries);
+    for (Map.Entry<Key, Integer> entry : expected.entrySet()) {
+      assertEquals(entry.getValue(), actual.get(entry.getKey()));
+    }
+  }
+
+  @Test
+  public void testEditsMatchHashMapAndLeaveEarlierMapsUntouched() {
+    Random random = new Random(23);
+    HashTrie<Key, Integer> trie = HashTrie.empty();
+    Map<Key, Integer> expected = new HashMap<>();
+    for (int round = 0; round < 200; round++) {
+      HashTrie<Key, Integer> before = trie;
+      Map<Key, Integer> expectedBefore = new HashMap<>(expected);
+      HashTrie.Editor<Key, Integer> editor = trie.edit();
+      for (int step = random.nextInt(20); step >= 0; step--) {
+        int id = random.nextInt(500);
+        // Few distinct hashes, some differing only in their top bits, to force deep collisions.
+        Key key = new Key(id, id % 7 == 0 ? 0x40000000 * (id % 4) : id * 0x9E3779B1);
+        if (random.nextInt(3) == 0) {
+          editor.remove(key);
+          expected.remove(key);
+        } else {
+          editor.put(key, round);
+          expected.put(key, round);
+        }
+        assertEquals(expected.get(key), editor.get(key));
+      }
+      trie = editor.build();
+      assertSameMap(expected, trie);
+      assertSameMap(expectedBefore, before);
+      assertNull(trie.get(new Key(1000, 0)));
+    }
+  }
+
+  @Test
+  public void testWithAndWithoutReturnNewMaps() {
+    HashTrie<String, Integer> empty = HashTrie.empty();
+    HashTrie<String, Integer> one = empty.with("a", 1);
+    HashTrie<String, Integer> two = one.with("b", 2).with("a", 3);
+
+    assertEquals(0, empty.size());
+    assertEquals(1, (int) one.get("a"));
+    assertEquals(2, two.size());
+    assertEquals(3, (int) two.get("a"));
+    assertEquals(1, two.without("a").size());
+    assertEquals(7, (int) two.without("b").without("a").getOrDefault("a", 7));
+  }
+
+  @Test
+  public void testEditorCannotBeUsedAfterBuilding() {
+    HashTrie.Editor<String, Integer> editor = HashTrie.<String, Integer>empty().edit();
+    editor.put("a", 1);
+    editor.build();
+
+    assertThrows(IllegalStateException.class, () -> editor.put("b", 2));
+  }
+}
@@ -0,0 +1,25 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+
+public class OffHeapVideoStoreTest {
+
+  @Test
+  public void testBuffersGrowByDoublingAndStopAtTheLimit() {
+    var buffer = ByteBuffer.allocateDirect(16).putInt(0, 42);
+    assertSame(buffer, OffHeapVideoStore.grow(buffer, 16));
+    var grown = OffHeapVideoStore.grow(buffer, 33);
+    assertEquals(64, grown.capacity());
+    assertEquals(42, grown.getInt(0));
+
+    assertThrows(IllegalStateException.class,
+        () -> OffHeapVideoStore.grow(buffer, Integer.MAX_VALUE));
+    assertThrows(IllegalStateException.class,
+        () -> OffHeapVideoStore.grow(buffer, (long) Integer.MAX_VALUE * 4));
+  }
+}
@@ -0,0 +1,110 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class OrdinalBitmapTest {
+
+  private static final int LIMIT = 3 << 16;
+
+  /** Returns a random set mixing sparse, dense and run-shaped chunks. */
+  private static BitSet randomSet(Random random) {
+    BitSet set = new BitSet();
+    for (int chunk = 0; chunk < LIMIT >>> 16; chunk++) {
+      int base = chunk << 16;
+      switch (random.nextInt(4)) {
+        case 0:
+          for (int i = random.nextInt(100); i > 0; i--) {
+            set.set(base + random.nextInt(1 << 16));
+          }
+          break;
+        case 1:
+          for (int i = 0; i < 1 << 16; i++) {
+            if (random.nextInt(3) == 0) {
+              set.set(base + i);
+            }
+          }
+          break;
+        case 2:
+          for (int i = random.nextInt(8); i > 0; i--) {
+            int from = base + random.nextInt(1 << 16);
+            set.set(from, Math.min(base + (1 << 16), from + random.nextInt(20000)));
+          }
+          break;
+        default:
+          break;
+      }
+    }
+    return set;
+  }
+
+  private static OrdinalBitmap bitmap(BitSet set) {
+    return OrdinalBitmap.of(set.stream().toArray());
+  }
+
+  private static void assertSameSet(BitSet expected, OrdinalBitmap actual) {
+    assertArrayEquals(expected.stream().toArray(), actual.toArray());
+    assertEquals(expected.cardinality(), actual.cardinality());
+  }
+
+  /** Splits a set into 65536-bit chunks, leaving empty chunks null. */
+  private static long[][] chunks(BitSet set) {
+    long[][] chunks = new long[LIMIT >>> 16][];
+    for (int chunk = 0; chunk < chunks.length; chunk++) {
+      BitSet bits = set.get(chunk << 16, (chunk + 1) << 16);
+      if (!bits.isEmpty()) {
+        chunks[chunk] = Arrays.copyOf(bits.toLongArray(), 1 << 10);
+      }
+    }
+    return chunks;
+  }
+
+  @Test
+  public void testSetOperationsMatchBitSet() {
+    Random random = new Random(17);
+    for (int round = 0; round < 30; round++) {
+      BitSet a = randomSet(random);
+      BitSet b = randomSet(random);
+      OrdinalBitmap left = bitmap(a);
+      OrdinalBitmap right = bitmap(b);
+      assertSameSet(a, left);
+
+      BitSet and = (BitSet) a.clone();
+      and.and(b);
+      assertSameSet(and, left.and(right));
+      BitSet or = (BitSet) a.clone();
+      or.or(b);
+      assertSameSet(or, left.or(right));
+      BitSet andNot = (BitSet) a.clone();
+      andNot.andNot(b);
+      assertSameSet(andNot, left.andNot(right));
+      assertSameSet(andNot, left.andNot(chunks(b)));
+      assertEquals(a.intersects(b), left.intersects(right));
+      assertEquals(a.intersects(b), right.intersects(left));
+      assertEquals(!andNot.isEmpty(), left.intersects(left.andNot(right)));
+
+      for (int i = 0; i < 200; i++) {
+        int ordinal = random.nextInt(LIMIT);
+        assertEquals(a.get(ordinal), left.contains(ordinal));
+        assertEquals(a.get(ordinal), left.intersects(OrdinalBitmap.of(ordinal)));
+      }
+    }
+  }
+
+  @Test
+  public void testEditsLeaveTheOriginalUntouched() {
+    OrdinalBitmap bitmap = OrdinalBitmap.of(1, 2, 3, 70000);
+    assertSame(bitmap, bitmap.andNot(OrdinalBitmap.EMPTY));
+    assertSame(bitmap, bitmap.or(OrdinalBitmap.EMPTY));
+    OrdinalBitmap edited = bitmap.andNot(OrdinalBitmap.of(70000)).or(OrdinalBitmap.of(5));
+    assertArrayEquals(new int[] {1, 2, 3, 5}, edited.toArray());
+    assertTrue(bitmap.contains(70000));
+  }
+}
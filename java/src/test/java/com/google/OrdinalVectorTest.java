@@ -0,0 +1,58 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class OrdinalVectorTest {
+
+  private static void assertSameValues(int[] expected, int size, OrdinalVector actual) {
+    assertEquals(size, actual.size());
+    for (int i = 0; i < size; i++) {
+      assertEquals(expected[i], actual.get(i));
+    }
+  }
+
+  @Test
+  public void testEditsMatchAnArrayAndLeaveEarlierVectorsUntouched() {
+    Random random = new Random(37);
+    int[] expected = new int[40000];
+    int size = 0;
+    OrdinalVector vector = OrdinalVector.EMPTY;
+    for (int round = 0; round < 100; round++) {
+      OrdinalVector before = vector;
+      int[] expectedBefore = Arrays.copyOf(expected, size);
+      int sizeBefore = size;
+      OrdinalVector.Editor editor = vector.edit();
+      for (int step = random.nextInt(50); step >= 0; step--) {
+        switch (random.nextInt(4)) {
+          case 0:
+            int index = random.nextInt(size + 400);
+            editor.set(index, step + 1);
+            expected[index] = step + 1;
+            size = Math.max(size, index + 1);
+            break;
+          case 1:
+            if (size > 0) {
+              assertEquals(expected[size - 1], editor.removeLast());
+              expected[--size] = 0;
+            }
+            break;
+          default:
+            editor.add(round);
+            expected[size++] = round;
+            break;
+        }
+      }
+      vector = editor.build();
+      assertSameValues(expected, size, vector);
+      assertSameValues(expectedBefore, sizeBefore, before);
+    }
+    assertThrows(IndexOutOfBoundsException.class, () -> OrdinalVector.EMPTY.get(0));
+    assertEquals(7, OrdinalVector.EMPTY.with(100000, 7).get(100000));
+    assertEquals(0, OrdinalVector.EMPTY.with(100000, 7).get(99999));
+  }
+}
@@ -99,6 +99,26 @@ public class Part2Test extends TestBase {
     assertThat(lines[4], containsString("my_playlist"));
   }
 
+  @Test
+  public void testShowAllPlaylistsPaged() {
+    videoPlayer.createPlaylist("c_playlist");
+    videoPlayer.createPlaylist("a_playlist");
+    videoPlayer.createPlaylist("b_playlist");
+    videoPlayer.showAllPlaylists(2, null);
+    videoPlayer.showAllPlaylists(2, "b_playlist");
+    videoPlayer.showAllPlaylists(2, "c_playlist");
+
+    var lines = getOutputLines();
+    assertEquals(10, lines.length, outputStream.toString());
+    assertThat(lines[3], containsString("Showing all playlists:"));
+    assertThat(lines[4], containsString("a_playlist"));
+    assertThat(lines[5], containsString("b_playlist"));
+    assertThat(lines[6], containsString("More playlists available: SHOW_ALL_PLAYLISTS 2 b_playlist"));
+    assertThat(lines[7], containsString("Showing all playlists:"));
+    assertThat(lines[8], containsString("c_playlist"));
+    assertThat(lines[9], containsString("No more playlists"));
+  }
+
   @Test
   public void testShowPlaylist() {
     videoPlayer.createPlaylist("my_playlist");
@@ -162,6 +182,24 @@ public class Part2Test extends TestBase {
         containsString("Cannot remove video from my_PLAYlist: Video is not in playlist"));
   }
 
+  @Test
+  public void testRemoveFromPlaylistKeepsInsertionOrder() {
+    videoPlayer.createPlaylist("my_playlist");
+    videoPlayer.addVideoToPlaylist("my_playlist", "life_at_google_video_id");
+    videoPlayer.addVideoToPlaylist("my_playlist", "amazing_cats_video_id");
+    videoPlayer.addVideoToPlaylist("my_playlist", "funny_dogs_video_id");
+    videoPlayer.removeFromPlaylist("my_playlist", "amazing_cats_video_id");
+    videoPlayer.addVideoToPlaylist("my_playlist", "amazing_cats_video_id");
+    videoPlayer.showPlaylist("my_playlist");
+
+    var lines = getOutputLines();
+    assertEquals(10, lines.length, outputStream.toString());
+    assertThat(lines[6], containsString("Showing playlist: my_playlist"));
+    assertThat(lines[7], containsString("Life at Google (life_at_google_video_id) [#google #career]"));
+    assertThat(lines[8], containsString("Funny Dogs (funny_dogs_video_id) [#dog #animal]"));
+    assertThat(lines[9], containsString("Amazing Cats (amazing_cats_video_id) [#cat #animal]"));
+  }
+
   @Test
   public void testRemoveFromPlaylistVideoNotInPlaylist() {
     videoPlayer.createPlaylist("my_playlist");
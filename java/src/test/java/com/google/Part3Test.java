@@ -155,4 +155,36 @@ public class Part3Test extends TestBase {
     assertEquals(1, getOutputLines().length);
     assertThat(outputStream.toString(), containsString("No search results for #blah"));
   }
+
+  @Test
+  public void testSearchVideosFallsBackToSimilarTitles() {
+    setInput("No");
+
+    videoPlayer.searchVideos("gogle");
+
+    var lines = getOutputLines();
+    assertEquals(4, lines.length, outputStream.toString());
+    assertThat(lines[0], containsString("No exact matches for gogle, here are similar titles:"));
+    assertThat(lines[1],
+        containsString("1) Life at Google (life_at_google_video_id) [#google #career]"));
+  }
+
+  @Test
+  public void testSearchVideosDoesNotFallBackWhenOnlyFlaggedTitlesMatch() {
+    videoPlayer.flagVideo("amazing_cats_video_id");
+
+    videoPlayer.searchVideos("cats");
+
+    var lines = getOutputLines();
+    assertEquals(2, lines.length, outputStream.toString());
+    assertThat(lines[1], containsString("No search results for cats"));
+  }
+
+  @Test
+  public void testSearchVideosWithTagsInvalidQuery() {
+    videoPlayer.searchVideosWithTags("#cat AND");
+    assertEquals(1, getOutputLines().length);
+    assertThat(outputStream.toString(),
+        containsString("Cannot search for #cat AND: Expected a tag at the end of the query"));
+  }
 }
@@ -0,0 +1,102 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+
+public class PrefixTrieTest {
+
+  /** Returns what complete should pass: the first limit keys of the map with the prefix. */
+  private static List<String> expected(TreeMap<String, Integer> keys, String prefix, int limit) {
+    List<String> completions = new ArrayList<>();
+    for (String key : keys.tailMap(prefix).keySet()) {
+      if (!key.startsWith(prefix) || completions.size() == limit) {
+        break;
+      }
+      completions.add(key);
+    }
+    return completions;
+  }
+
+  /** Returns the first limit keys the trie completes the prefix with. */
+  private static List<String> complete(PrefixTrie trie, String prefix, int limit) {
+    List<String> completions = new ArrayList<>();
+    trie.complete(prefix, (key, ordinals) -> {
+      completions.add(key);
+      return completions.size() < limit;
+    });
+    return completions;
+  }
+
+  @Test
+  public void testCompletionsFollowPutsAndRemoves() {
+    Random random = new Random(19);
+    TreeMap<String, Integer> keys = new TreeMap<>();
+    List<String> added = new ArrayList<>();
+    PrefixTrie trie = PrefixTrie.EMPTY;
+    for (int step = 0; step < 3000; step++) {
+      if (added.isEmpty() || random.nextInt(3) > 0) {
+        StringBuilder key = new StringBuilder();
+        for (int i = random.nextInt(6); i > 0; i--) {
+          key.append((char) ('a' + random.nextInt(3)));
+        }
+        trie = trie.put(key.toString(), trie.get(key.toString()).or(OrdinalBitmap.of(step)));
+        keys.merge(key.toString(), 1, Integer::sum);
+        added.add(key + " " + step);
+      } else {
+        String[] entry = added.remove(random.nextInt(added.size())).split(" ");
+        String key = entry[0];
+        trie = trie.put(key,
+            trie.get(key).andNot(OrdinalBitmap.of(Integer.parseInt(entry[1]))));
+        keys.merge(key, -1, (a, b) -> a + b == 0 ? null : a + b);
+        assertEquals(keys.getOrDefault(key, 0), trie.get(key).cardinality());
+        assertEquals(expected(keys, "", 1000), complete(trie, "", 1000));
+      }
+      String prefix = "abc".substring(0, random.nextInt(4));
+      int limit = 1 + random.nextInt(5);
+      assertEquals(expected(keys, prefix, limit), complete(trie, prefix, limit));
+    }
+  }
+
+  private static int distance(String a, String b) {
+    int[][] d = new int[a.length() + 1][b.length() + 1];
+    for (int i = 0; i <= a.length(); i++) {
+      for (int j = 0; j <= b.length(); j++) {
+        d[i][j] = i == 0 || j == 0 ? i + j : Math.min(
+            d[i - 1][j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1),
+            Math.min(d[i - 1][j], d[i][j - 1]) + 1);
+      }
+    }
+    return d[a.length()][b.length()];
+  }
+
+  @Test
+  public void testWithinDistanceMatchesBruteForce() {
+    Random random = new Random(20);
+    TreeMap<String, Integer> keys = new TreeMap<>();
+    PrefixTrie trie = PrefixTrie.EMPTY;
+    for (int i = 0; i < 500; i++) {
+      StringBuilder key = new StringBuilder();
+      for (int c = 1 + random.nextInt(7); c > 0; c--) {
+        key.append((char) ('a' + random.nextInt(4)));
+      }
+      trie = trie.put(key.toString(), trie.get(key.toString()).or(OrdinalBitmap.of(i)));
+      keys.merge(key.toString(), 1, Integer::sum);
+    }
+    for (String word : List.of("abc", "dddd", "a", "abcdabc", "")) {
+      for (int maxDistance = 0; maxDistance <= 2; maxDistance++) {
+        List<String> expected = new ArrayList<>();
+        for (String key : keys.keySet()) {
+          if (distance(key, word) <= maxDistance) {
+            expected.add(key);
+          }
+        }
+        assertEquals(expected, trie.withinDistance(word, maxDistance));
+      }
+    }
+  }
+}
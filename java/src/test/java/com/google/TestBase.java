@@ -2,27 +2,49 @@ package com.google;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
-import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.Scanner;
 
 public class TestBase {
-    protected final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    /** The player's output; reading it flushes whatever the commands run so far have written. */
+    protected final ByteArrayOutputStream outputStream = new ByteArrayOutputStream() {
+        @Override
+        public synchronized String toString() {
+            sink.flush();
+            return super.toString();
+        }
+    };
+    private final OutputSink sink = new BufferedOutputSink(outputStream);
+    /** The player's input, replaced by {@link #setInput}. */
+    private Scanner input = new Scanner("");
     protected VideoPlayer videoPlayer;
-    private InputStream stdin;
+    /** Holds the catalog snapshot, so that every test starts by parsing videos.txt. */
+    @TempDir
+    Path snapshotDir;
+    private String configuredSnapshot;
 
     @BeforeEach
     public void setUp() {
-      System.setOut(new PrintStream(outputStream));
-      videoPlayer = new VideoPlayer();
-      stdin = System.in;
+      configuredSnapshot = System.setProperty(CatalogSnapshot.SNAPSHOT_PROPERTY,
+          snapshotDir.resolve("videos.snapshot").toString());
+      videoPlayer = new VideoPlayer(sink, () -> input.nextLine());
     }
 
     @AfterEach
     public void tearDown() {
-        System.setIn(stdin);
+      restoreSnapshotProperty(configuredSnapshot);
+    }
+
+    /** Puts back the snapshot property a test replaced. */
+    static void restoreSnapshotProperty(String configured) {
+      if (configured == null) {
+        System.clearProperty(CatalogSnapshot.SNAPSHOT_PROPERTY);
+      } else {
+        System.setProperty(CatalogSnapshot.SNAPSHOT_PROPERTY, configured);
+      }
     }
 
     String[] getOutputLines() {
@@ -30,6 +52,6 @@ public class TestBase {
     }
 
     void setInput(String str) {
-      System.setIn(new ByteArrayInputStream((str + "\r\n").getBytes()));
+      input = new Scanner(str + "\r\n");
     }
 }
@@ -0,0 +1,100 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.jupiter.api.Test;
+
+public class TitleOrderTest {
+
+  private final HeapVideoStore store = new HeapVideoStore(new TagDictionary());
+
+  /** Stores a video with a short random title, so that many titles are equal. */
+  private int addVideo(Random random) {
+    String title = "t" + random.nextInt(200);
+    return store.add(title, "id" + store.ordinalLimit(), new int[0]);
+  }
+
+  private OrdinalBitmap bitmap(List<Integer> ordinals) {
+    return OrdinalBitmap.of(ordinals.stream().mapToInt(Integer::intValue).toArray());
+  }
+
+  private void assertSameOrder(TreeSet<Integer> expected, TitleOrder actual) {
+    int[] ordinals = expected.stream().mapToInt(Integer::intValue).toArray();
+    assertArrayEquals(ordinals, actual.toArray());
+    assertEquals(ordinals.length, actual.size());
+    for (int i = 0; i < ordinals.length; i += 1 + ordinals.length / 40) {
+      assertEquals(ordinals[i], actual.get(i));
+      assertEquals(i + 1, actual.countUpTo(ordinals[i]));
+    }
+    if (ordinals.length > 10) {
+      assertArrayEquals(Arrays.copyOfRange(ordinals, 3, 10), actual.toArray(3, 10));
+    }
+  }
+
+  @Test
+  public void testSmallAndLargeEditsMatchASortedSet() {
+    Random random = new Random(29);
+    TreeSet<Integer> expected = new TreeSet<>(store::compareTitleOrder);
+    TitleOrder order = new TitleOrder(store);
+    for (int round = 0; round < 300; round++) {
+      TitleOrder before = order;
+      int[] expectedBefore = expected.stream().mapToInt(Integer::intValue).toArray();
+      // Mostly single-video edits that copy paths, with an occasional bulk edit that rebuilds.
+      int changes = round % 50 == 0 ? 2000 : 1 + random.nextInt(3);
+      List<Integer> removed = new ArrayList<>();
+      List<Integer> live = new ArrayList<>(expected);
+      for (int i = 0; i < changes / 3 && i < live.size(); i++) {
+        int ordinal = live.get(random.nextInt(live.size()));
+        if (!removed.contains(ordinal)) {
+          removed.add(ordinal);
+        }
+      }
+      List<Integer> added = new ArrayList<>();
+      for (int i = changes - removed.size(); i > 0; i--) {
+        added.add(addVideo(random));
+      }
+      order = order.edit(bitmap(removed), bitmap(added));
+      expected.removeAll(removed);
+      expected.addAll(added);
+
+      assertSameOrder(expected, order);
+      assertArrayEquals(expectedBefore, before.toArray());
+    }
+  }
+
+  @Test
+  public void testSortsSubsetsByComparingOrByScanning() {
+    Random random = new Random(31);
+    List<Integer> all = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      all.add(addVideo(random));
+    }
+    TitleOrder order = new TitleOrder(store).edit(OrdinalBitmap.EMPTY, bitmap(all));
+    for (int size : new int[] {0, 1, 5, 100, 2000, 5000}) {
+      TreeSet<Integer> subset = new TreeSet<>(store::compareTitleOrder);
+      while (subset.size() < size) {
+        subset.add(all.get(random.nextInt(all.size())));
+      }
+      assertArrayEquals(subset.stream().mapToInt(Integer::intValue).toArray(),
+          order.sort(bitmap(new ArrayList<>(subset))));
+    }
+  }
+
+  @Test
+  public void testCountUpToPlacesVideosNotInTheTree() {
+    int b = store.add("b", "b", new int[0]);
+    int d = store.add("d", "d", new int[0]);
+    TitleOrder order = new TitleOrder(store).edit(OrdinalBitmap.EMPTY, OrdinalBitmap.of(b, d));
+
+    assertEquals(0, order.countUpTo(store.add("a", "a", new int[0])));
+    assertEquals(1, order.countUpTo(store.add("c", "c", new int[0])));
+    assertEquals(2, order.countUpTo(store.add("e", "e", new int[0])));
+    assertEquals(0, new TitleOrder(store).countUpTo(b));
+  }
+}
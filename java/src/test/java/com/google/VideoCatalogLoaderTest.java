@@ -0,0 +1,141 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class VideoCatalogLoaderTest {
+
+  @TempDir
+  Path tempDir;
+
+  /** Returns a sink that adds each parsed video to the store and collects it. */
+  private static VideoCatalogLoader.Sink collect(VideoStore store, List<Video> videos) {
+    return (title, videoId, tagIds) -> videos.add(store.video(store.add(title, videoId, tagIds)));
+  }
+
+  private static List<Video> parse(String catalog) {
+    var bytes = catalog.getBytes(StandardCharsets.UTF_8);
+    var store = new HeapVideoStore(new TagDictionary());
+    var videos = new ArrayList<Video>();
+    VideoCatalogLoader.parse(
+        ByteBuffer.wrap(bytes), 0, bytes.length, store.getTagDictionary(), collect(store, videos));
+    return videos;
+  }
+
+  @Test
+  public void testParsesFieldsAndTags() {
+    var videos = parse("Amazing Cats | amazing_cats_video_id |  #cat , #animal\r\n"
+        + "\n"
+        + "Video about nothing | nothing_video_id |\n"
+        + "Caf\u00e9 Tour|cafe_video_id|#food\n"
+        + "\u2003Wide Title\u3000|\u2002wide_video_id\u2009| #wide\u2003,\u3000\n");
+
+    assertEquals(4, videos.size());
+    assertEquals("Amazing Cats", videos.get(0).getTitle());
+    assertEquals("amazing_cats_video_id", videos.get(0).getVideoId());
+    assertEquals(List.of("#cat", "#animal"), videos.get(0).getTags());
+    assertEquals("nothing_video_id", videos.get(1).getVideoId());
+    assertTrue(videos.get(1).getTags().isEmpty());
+    assertEquals("Caf\u00e9 Tour", videos.get(2).getTitle());
+    assertEquals(List.of("#food"), videos.get(2).getTags());
+    assertEquals("Wide Title", videos.get(3).getTitle());
+    assertEquals("wide_video_id", videos.get(3).getVideoId());
+    assertEquals(List.of("#wide"), videos.get(3).getTags());
+  }
+
+  @Test
+  public void testSkipsLinesWithoutVideoId() {
+    var videos = parse("No id here\nEmpty id | |#tag\nTitle | id\n");
+
+    assertEquals(1, videos.size());
+    assertEquals("id", videos.get(0).getVideoId());
+  }
+
+  @Test
+  public void testLoadsFromMappedFileAndJarEntry() throws IOException {
+    var catalog = "Funny Dogs | funny_dogs_video_id |  #dog , #animal\n";
+    var file = tempDir.resolve("videos.txt");
+    Files.writeString(file, catalog);
+    var jar = tempDir.resolve("videos.jar");
+    try (var out = new JarOutputStream(Files.newOutputStream(jar))) {
+      out.putNextEntry(new JarEntry("videos.txt"));
+      out.write(catalog.getBytes(StandardCharsets.UTF_8));
+      out.closeEntry();
+    }
+
+    var fileStore = new HeapVideoStore(new TagDictionary());
+    var fromFile = new ArrayList<Video>();
+    VideoCatalogLoader.load(
+        file.toUri().toURL(), fileStore.getTagDictionary(), collect(fileStore, fromFile));
+    var jarStore = new HeapVideoStore(new TagDictionary());
+    var fromJar = new ArrayList<Video>();
+    VideoCatalogLoader.load(new URL("jar:" + jar.toUri() + "!/videos.txt"),
+        jarStore.getTagDictionary(), collect(jarStore, fromJar));
+
+    assertEquals(1, fromFile.size());
+    assertEquals(1, fromJar.size());
+    assertEquals(fromFile.get(0).getTags(), fromJar.get(0).getTags());
+    assertEquals("funny_dogs_video_id", fromJar.get(0).getVideoId());
+  }
+
+  @Test
+  public void testLoadsMappedFileInLineAlignedSegments() throws IOException {
+    var catalog = new StringBuilder();
+    for (int i = 0; i < 50; i++) {
+      catalog.append("Video ").append(i).append(" | id_").append(i).append(" | #tag\n");
+    }
+    var file = tempDir.resolve("videos.txt");
+    Files.writeString(file, catalog + "Last | id_last");
+
+    var titles = new ArrayList<String>();
+    VideoCatalogLoader.load(file.toUri().toURL(), new TagDictionary(),
+        (title, videoId, tagIds) -> titles.add(title), 64);
+    assertEquals(51, titles.size());
+    assertEquals("Video 0", titles.get(0));
+    assertEquals("Last", titles.get(50));
+
+    assertThrows(IOException.class, () -> VideoCatalogLoader.load(file.toUri().toURL(),
+        new TagDictionary(), (title, videoId, tagIds) -> titles.add(title), 16));
+  }
+
+  @Test
+  public void testParallelParseKeepsFileOrderAndLastDuplicateWins() {
+    var catalog = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      catalog.append("Video ").append(i).append(" | id_").append(i % 700).append(" | #tag\n");
+    }
+    var buffer = ByteBuffer.wrap(catalog.toString().getBytes(StandardCharsets.UTF_8));
+
+    var tags = new TagDictionary();
+    var sequential = new ArrayList<String>();
+    VideoCatalogLoader.parse(buffer, 0, buffer.limit(), tags,
+        (title, videoId, tagIds) -> sequential.add(title));
+    var parallel = new ArrayList<String>();
+    var library = new HashMap<String, String>();
+    VideoCatalogLoader.parseParallel(buffer, 97, tags, (title, videoId, tagIds) -> {
+      parallel.add(title);
+      library.put(videoId, title);
+    });
+
+    assertEquals(1000, parallel.size());
+    assertEquals(sequential, parallel);
+    assertEquals(1, tags.size());
+    assertEquals(700, library.size());
+    assertEquals("Video 999", library.get("id_299"));
+  }
+}
@@ -1,21 +1,46 @@
 package com.google;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 public class VideoLibraryTest {
 
+  private HeapVideoStore store;
   private VideoLibrary videoLibrary;
+  /** Holds the catalog snapshot, so that every test starts by parsing videos.txt. */
+  @TempDir
+  Path snapshotDir;
+  private String configuredSnapshot;
 
   @BeforeEach
   public void setUp() {
-    videoLibrary = new VideoLibrary();
+    configuredSnapshot = System.setProperty(CatalogSnapshot.SNAPSHOT_PROPERTY,
+        snapshotDir.resolve("videos.snapshot").toString());
+    store = new HeapVideoStore(new TagDictionary());
+    videoLibrary = new VideoLibrary(store);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    TestBase.restoreSnapshotProperty(configuredSnapshot);
   }
 
   @Test
@@ -42,4 +67,552 @@ public class VideoLibraryTest {
     assertEquals("nothing_video_id", video.getVideoId());
     assertTrue(video.getTags().isEmpty());
   }
+
+  @Test
+  public void testTagIndexFollowsAddedAndRemovedVideos() {
+    assertEquals(2, videoLibrary.searchVideosWithTag("#CAT").size());
+
+    videoLibrary.addVideo("Cat Tricks", "cat_tricks_video_id", List.of("#cat"));
+    assertEquals(3, videoLibrary.searchVideosWithTag("#cat").size());
+
+    videoLibrary.removeVideo("amazing_cats_video_id");
+    videoLibrary.removeVideo("another_cat_video_id");
+    var matches = videoLibrary.searchVideosWithTag("#cat");
+    assertEquals(1, matches.size());
+    assertEquals("cat_tricks_video_id", matches.get(0).getVideoId());
+    assertEquals(1, videoLibrary.searchVideosWithTag("#dog").size());
+  }
+
+  @Test
+  public void testSearchVideosMatchesSubstringsOfAnyLength() {
+    assertEquals(2, videoLibrary.searchVideos("CAT").size());
+    assertEquals(1, videoLibrary.searchVideos("at goo").size());
+    assertEquals(5, videoLibrary.searchVideos("").size());
+    assertEquals(4, videoLibrary.searchVideos("i").size());
+    assertTrue(videoLibrary.searchVideos("cats video").isEmpty());
+
+    videoLibrary.removeVideo("life_at_google_video_id");
+    assertTrue(videoLibrary.searchVideos("at goo").isEmpty());
+  }
+
+  @Test
+  public void testRandomVideoReachesEveryPlayableVideo() {
+    var seen = new HashSet<Video>();
+    for (int i = 0; i < 1000; i++) {
+      seen.add(videoLibrary.getRandomVideo());
+    }
+    assertEquals(5, seen.size());
+  }
+
+  @Test
+  public void testRandomVideoSkipsFlaggedVideos() {
+    for (Video video : videoLibrary.getVideos()) {
+      if (!video.getVideoId().equals("funny_dogs_video_id")) {
+        video.flagVideo();
+      }
+    }
+    for (int i = 0; i < 100; i++) {
+      assertEquals("funny_dogs_video_id", videoLibrary.getRandomVideo().getVideoId());
+    }
+
+    videoLibrary.getVideo("funny_dogs_video_id").flagVideo();
+    assertNull(videoLibrary.getRandomVideo());
+
+    videoLibrary.getVideo("nothing_video_id").allowVideo();
+    assertEquals("nothing_video_id", videoLibrary.getRandomVideo().getVideoId());
+  }
+
+  @Test
+  public void testRandomVideoFollowsEditsAndFlags() {
+    for (int i = 0; i < 100; i++) {
+      videoLibrary.addVideo("Video " + i, "video_" + i, List.of());
+    }
+    var expected = new HashSet<String>();
+    for (int i = 0; i < 100; i++) {
+      String videoId = "video_" + i;
+      if (i % 3 == 0) {
+        videoLibrary.getVideo(videoId).flagVideo();
+      } else if (i % 5 == 0) {
+        videoLibrary.removeVideo(videoId);
+      } else {
+        expected.add(videoId);
+      }
+    }
+    // Replacing a video carries its flag over, and allowing it again makes it playable.
+    videoLibrary.addVideo("Replaced", "video_3", List.of());
+    videoLibrary.addVideo("Replaced", "video_4", List.of());
+    videoLibrary.getVideo("video_6").allowVideo();
+    expected.add("video_6");
+    for (Video video : videoLibrary.getVideos()) {
+      if (video.getVideoId().endsWith("_id")) {
+        video.flagVideo();
+      }
+    }
+
+    var seen = new HashSet<String>();
+    for (int i = 0; i < 5000; i++) {
+      seen.add(videoLibrary.getRandomVideo().getVideoId());
+    }
+    assertEquals(expected, seen);
+    assertEquals(expected.size(), videoLibrary.getNumberOfPlayableVideos());
+  }
+
+  @Test
+  public void testVideoCountsFollowFlagChanges() {
+    assertEquals(5, videoLibrary.getNumberOfVideos());
+    assertEquals(0, videoLibrary.getNumberOfFlaggedVideos());
+    assertEquals(5, videoLibrary.getNumberOfPlayableVideos());
+
+    videoLibrary.getVideo("funny_dogs_video_id").flagVideo("dont_like_dogs");
+    videoLibrary.getVideo("funny_dogs_video_id").flagVideo();
+    videoLibrary.getVideo("nothing_video_id").flagVideo();
+    assertEquals(5, videoLibrary.getNumberOfVideos());
+    assertEquals(2, videoLibrary.getNumberOfFlaggedVideos());
+    assertEquals(3, videoLibrary.getNumberOfPlayableVideos());
+    assertTrue(videoLibrary.hasPlayableVideos());
+
+    videoLibrary.getVideo("nothing_video_id").allowVideo();
+    videoLibrary.removeVideo("funny_dogs_video_id");
+    assertEquals(4, videoLibrary.getNumberOfVideos());
+    assertEquals(0, videoLibrary.getNumberOfFlaggedVideos());
+    assertEquals(4, videoLibrary.getNumberOfPlayableVideos());
+  }
+
+  @Test
+  public void testTagsAreInternedOnceAcrossVideos() {
+    var dogs = videoLibrary.getVideo("funny_dogs_video_id");
+    var cats = videoLibrary.getVideo("amazing_cats_video_id");
+
+    assertEquals(5, videoLibrary.getTagDictionary().size());
+    assertEquals(dogs.getTagIds()[1], cats.getTagIds()[1]);
+    assertEquals("#animal", videoLibrary.getTagDictionary().tag(cats.getTagIds()[1]));
+  }
+
+  @Test
+  public void testOffHeapStoreAnswersLikeHeapStore() {
+    var offHeap = new VideoLibrary(new OffHeapVideoStore(new TagDictionary()));
+
+    assertEquals(infos(videoLibrary.getVideos()), infos(offHeap.getVideos()));
+    for (String term : List.of("", "a", "cat", "s c", "video about nothing", "nothing at all")) {
+      assertEquals(infos(videoLibrary.searchVideos(term)), infos(offHeap.searchVideos(term)));
+    }
+    assertEquals(infos(videoLibrary.searchVideosWithTag("#animal")),
+        infos(offHeap.searchVideosWithTag("#animal")));
+    assertEquals(offHeap.getVideo("amazing_cats_video_id"),
+        offHeap.getVideo("amazing_cats_video_id"));
+
+    offHeap.getVideo("amazing_cats_video_id").flagVideo("dont_like_cats");
+    assertEquals(1, offHeap.searchVideos("cat").size());
+    assertEquals("dont_like_cats", offHeap.getVideo("amazing_cats_video_id").getFlaggedReason());
+
+    offHeap.removeVideo("funny_dogs_video_id");
+    offHeap.addVideo("Funny Dogs 2", "funny_dogs_video_id", List.of("#dog"));
+    assertNull(offHeap.getVideo("missing_video_id"));
+    assertEquals("Funny Dogs 2", offHeap.getVideo("funny_dogs_video_id").getTitle());
+    assertEquals(5, offHeap.getNumberOfVideos());
+  }
+
+  @Test
+  public void testApplyCatalogAppliesOnlyTheDifferences() {
+    var cats = videoLibrary.getVideo("amazing_cats_video_id");
+    var dogs = videoLibrary.getVideo("funny_dogs_video_id");
+    cats.flagVideo("dont_like_cats");
+    dogs.flagVideo("dont_like_dogs");
+
+    var entries = new LinkedHashMap<String, VideoLibrary.CatalogEntry>();
+    for (var video : videoLibrary.getVideos()) {
+      entries.put(video.getVideoId(),
+          new VideoLibrary.CatalogEntry(video.getTitle(), video.getTags()));
+    }
+    entries.remove("life_at_google_video_id");
+    entries.put("amazing_cats_video_id",
+        new VideoLibrary.CatalogEntry("Amazing Kittens", List.of("#cat")));
+    entries.put("new_video_id", new VideoLibrary.CatalogEntry("New Video", List.of("#new")));
+
+    var summary = videoLibrary.applyCatalog(entries);
+
+    assertEquals("1 added, 1 removed, 1 changed", summary.toString());
+    assertEquals(5, videoLibrary.getNumberOfVideos());
+    assertNull(videoLibrary.getVideo("life_at_google_video_id"));
+    assertEquals("Amazing Kittens", cats.getTitle());
+    assertEquals(cats, videoLibrary.getVideo("amazing_cats_video_id"));
+    assertTrue(cats.getFlag());
+    assertEquals("dont_like_cats", cats.getFlaggedReason());
+    assertTrue(dogs.getFlag());
+    assertEquals(2, videoLibrary.getNumberOfFlaggedVideos());
+    assertEquals(3, videoLibrary.getNumberOfPlayableVideos());
+
+    cats.allowVideo();
+    assertEquals(List.of(cats), videoLibrary.searchVideos("kitten"));
+    assertTrue(videoLibrary.searchVideos("amazing cats").isEmpty());
+    assertEquals(List.of(cats), videoLibrary.searchVideosWithTag("#cat").subList(0, 1));
+    assertFalse(videoLibrary.searchVideosWithTag("#animal").contains(cats));
+    assertEquals("New Video", videoLibrary.searchVideosWithTag("#new").get(0).getTitle());
+  }
+
+  @Test
+  public void testReadersKeepTheVersionTheyStartedWith() {
+    var before = store.version();
+    var cats = videoLibrary.getVideo("amazing_cats_video_id");
+
+    cats.flagVideo("dont_like_cats");
+    var flagged = store.version();
+    videoLibrary.removeVideo("funny_dogs_video_id");
+
+    assertFalse(before.isFlagged(cats.getOrdinal()));
+    assertTrue(flagged.isFlagged(cats.getOrdinal()));
+    assertEquals(5, before.size());
+    assertEquals(5, flagged.size());
+    assertEquals(4, store.version().size());
+    assertTrue(before.find("funny_dogs_video_id") >= 0);
+    assertSame(before.titleIndex, flagged.titleIndex);
+    assertSame(before.titleOrder, flagged.titleOrder);
+    assertEquals(1, store.version().getNumberOfFlaggedVideos());
+  }
+
+  @Test
+  public void testIdsWithEqualHashesAreKeptApart() {
+    // "Aa" and "BB" hash alike, so these ids share one hash and end up in one collision list.
+    var ids = List.of("AaAaAa", "AaAaBB", "AaBBAa", "BBAaAa", "BBBBBB");
+    var before = store.version();
+    for (String id : ids) {
+      videoLibrary.addVideo("Title " + id, id, List.of());
+    }
+    videoLibrary.removeVideo("AaBBAa");
+    videoLibrary.addVideo("Changed", "BBAaAa", List.of());
+
+    assertNull(videoLibrary.getVideo("AaBBAa"));
+    assertEquals("Changed", videoLibrary.getVideo("BBAaAa").getTitle());
+    assertEquals("Title BBBBBB", videoLibrary.getVideo("BBBBBB").getTitle());
+    assertEquals(9, videoLibrary.getNumberOfVideos());
+    assertEquals(VideoStore.NOT_FOUND, before.find("AaAaAa"));
+  }
+
+  @Test
+  public void testConcurrentFlagsChangeTheStateOnce() throws Exception {
+    var pool = Executors.newFixedThreadPool(8);
+    try {
+      var flags = new ArrayList<Future<Boolean>>();
+      var allows = new ArrayList<Future<Boolean>>();
+      for (int i = 0; i < 64; i++) {
+        String reason = "reason_" + i;
+        flags.add(pool.submit(
+            () -> videoLibrary.getVideo("funny_dogs_video_id").flagVideo(reason)));
+      }
+      String winner = null;
+      for (int i = 0; i < flags.size(); i++) {
+        if (flags.get(i).get()) {
+          assertNull(winner);
+          winner = "reason_" + i;
+        }
+      }
+      assertEquals(winner, videoLibrary.getVideo("funny_dogs_video_id").getFlaggedReason());
+
+      for (int i = 0; i < 64; i++) {
+        allows.add(pool.submit(() -> videoLibrary.getVideo("funny_dogs_video_id").allowVideo()));
+      }
+      int allowed = 0;
+      for (var allow : allows) {
+        allowed += allow.get() ? 1 : 0;
+      }
+      assertEquals(1, allowed);
+      assertEquals(0, videoLibrary.getNumberOfFlaggedVideos());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testSearchVideosWithTagsCombinesTags() {
+    videoLibrary.addVideo("Google Cats", "google_cats_video_id", List.of("#cat", "#google"));
+
+    assertEquals(List.of("amazing_cats_video_id", "another_cat_video_id"),
+        ids(videoLibrary.searchVideosWithTags("#cat AND #animal NOT #google")));
+    assertEquals(List.of("amazing_cats_video_id", "another_cat_video_id"),
+        ids(videoLibrary.searchVideosWithTags("#cat AND NOT #google")));
+    assertEquals(List.of("funny_dogs_video_id", "google_cats_video_id"),
+        ids(videoLibrary.searchVideosWithTags("#dog OR #cat and not #animal")));
+    assertEquals(List.of("amazing_cats_video_id", "another_cat_video_id", "funny_dogs_video_id",
+        "google_cats_video_id"), ids(videoLibrary.searchVideosWithTags("#animal or #CAT")));
+    assertEquals(List.of("google_cats_video_id", "life_at_google_video_id"),
+        ids(videoLibrary.searchVideosWithTags("#google #career OR #google #cat")));
+    assertEquals(List.of("funny_dogs_video_id", "nothing_video_id"),
+        ids(videoLibrary.searchVideosWithTags("NOT #cat NOT #google")));
+    assertTrue(videoLibrary.searchVideosWithTags("#cat AND #unknown").isEmpty());
+
+    videoLibrary.getVideo("amazing_cats_video_id").flagVideo();
+    assertEquals(List.of("another_cat_video_id"),
+        ids(videoLibrary.searchVideosWithTags("#cat NOT #google")));
+
+    assertThrows(IllegalArgumentException.class,
+        () -> videoLibrary.searchVideosWithTags("#cat AND"));
+    assertThrows(IllegalArgumentException.class,
+        () -> videoLibrary.searchVideosWithTags("OR #cat"));
+    assertThrows(IllegalArgumentException.class,
+        () -> videoLibrary.searchVideosWithTags("#cat AND NOT"));
+    assertThrows(IllegalArgumentException.class,
+        () -> videoLibrary.searchVideosWithTags("#cat NOT AND #dog"));
+    assertThrows(IllegalArgumentException.class,
+        () -> videoLibrary.searchVideosWithTags(" "));
+  }
+
+  @Test
+  public void testAutocompleteFollowsCatalogChanges() {
+    assertEquals(List.of("Amazing Cats", "Another Cat Video"), videoLibrary.autocomplete("A", 10));
+    assertEquals(List.of("Amazing Cats"), videoLibrary.autocomplete("a", 1));
+    assertEquals(List.of("#career", "#cat"), videoLibrary.autocomplete("#ca", 10));
+
+    videoLibrary.addVideo("Amazing Cats", "more_cats_video_id", List.of("#catnip"));
+    videoLibrary.removeVideo("amazing_cats_video_id");
+    videoLibrary.removeVideo("another_cat_video_id");
+    assertEquals(List.of("Amazing Cats"), videoLibrary.autocomplete("a", 10));
+    assertEquals(List.of("#career", "#catnip"), videoLibrary.autocomplete("#ca", 10));
+    assertTrue(videoLibrary.autocomplete("zebra", 10).isEmpty());
+  }
+
+  @Test
+  public void testAutocompleteSkipsFlaggedVideosAndReadsLongTitlesFromTheStore() {
+    videoLibrary.addVideo("amazing cats", "lower_cats_video_id", List.of("#lower"));
+    videoLibrary.addVideo("A Very Long Title About Cats", "long_cats_video_id", List.of("#long"));
+    videoLibrary.addVideo("A Very Long Title About Dogs", "long_dogs_video_id", List.of("#long"));
+    assertEquals(List.of("Amazing Cats", "amazing cats"), videoLibrary.autocomplete("am", 10));
+    assertEquals(List.of("A Very Long Title About Dogs"),
+        videoLibrary.autocomplete("a very long title about d", 10));
+    assertEquals(List.of("A Very Long Title About Cats", "A Very Long Title About Dogs"),
+        videoLibrary.autocomplete("A Very Long Title", 10));
+
+    videoLibrary.getVideo("amazing_cats_video_id").flagVideo();
+    videoLibrary.getVideo("lower_cats_video_id").flagVideo();
+    videoLibrary.getVideo("long_dogs_video_id").flagVideo();
+    assertTrue(videoLibrary.autocomplete("am", 10).isEmpty());
+    assertTrue(videoLibrary.autocomplete("#lower", 10).isEmpty());
+    assertEquals(List.of("#long"), videoLibrary.autocomplete("#lo", 10));
+    assertEquals(List.of("A Very Long Title About Cats"),
+        videoLibrary.autocomplete("a very long title", 10));
+  }
+
+  @Test
+  public void testSearchVideosFuzzyToleratesTypos() {
+    assertEquals(List.of("amazing_cats_video_id"), ids(videoLibrary.searchVideosFuzzy("amazng")));
+    assertEquals(List.of("amazing_cats_video_id", "another_cat_video_id"),
+        ids(videoLibrary.searchVideosFuzzy("CAS")));
+    assertEquals(List.of("life_at_google_video_id"),
+        ids(videoLibrary.searchVideosFuzzy("lfe at gogle")));
+    assertTrue(videoLibrary.searchVideosFuzzy("gogle dogs").isEmpty());
+    assertTrue(videoLibrary.searchVideosFuzzy("ct").isEmpty());
+
+    videoLibrary.getVideo("amazing_cats_video_id").flagVideo();
+    videoLibrary.removeVideo("another_cat_video_id");
+    assertTrue(videoLibrary.searchVideosFuzzy("cas").isEmpty());
+  }
+
+  @Test
+  public void testSearchVideosRankedOrdersByRelevance() {
+    assertEquals(List.of("another_cat_video_id", "amazing_cats_video_id"),
+        ids(videoLibrary.searchVideosRanked("cat", 10)));
+    assertEquals(List.of("nothing_video_id", "another_cat_video_id"),
+        ids(videoLibrary.searchVideosRanked("Video", 10)));
+    assertEquals(List.of("another_cat_video_id"),
+        ids(videoLibrary.searchVideosRanked("cat video", 1)));
+    assertTrue(videoLibrary.searchVideosRanked("zebra", 10).isEmpty());
+
+    videoLibrary.getVideo("another_cat_video_id").flagVideo();
+    videoLibrary.removeVideo("funny_dogs_video_id");
+    assertEquals(List.of("amazing_cats_video_id"),
+        ids(videoLibrary.searchVideosRanked("cat", 10)));
+    assertEquals(2, store.version().termIndex.documentFrequency("animal"));
+  }
+
+  @Test
+  public void testSearchVideosRankedCountsRepeatedTerms() {
+    videoLibrary.addVideo("Cat Cat Cat Compilation", "cat_cat_video_id", List.of("#cat"));
+    assertEquals(List.of("cat_cat_video_id", "another_cat_video_id"),
+        ids(videoLibrary.searchVideosRanked("cat", 2)));
+
+    videoLibrary.addVideo("Cat Compilation", "cat_cat_video_id", List.of("#dog"));
+    assertEquals(List.of("another_cat_video_id", "cat_cat_video_id"),
+        ids(videoLibrary.searchVideosRanked("cat", 2)));
+    assertEquals(3, store.version().termIndex.documentFrequency("cat"));
+  }
+
+  @Test
+  public void testCachedSearchesAreInvalidatedOnlyByChangesTheyMatch() {
+    var cats = videoLibrary.searchVideos("Cat");
+    assertEquals(cats, videoLibrary.searchVideos("cat"));
+    assertEquals(2, videoLibrary.searchVideosWithTag("#cat").size());
+    var stats = videoLibrary.getQueryCacheStats();
+    assertEquals(1, stats.hits);
+    assertEquals(2, stats.misses);
+
+    videoLibrary.getVideo("funny_dogs_video_id").flagVideo();
+    assertEquals(cats, videoLibrary.searchVideos("cat"));
+    assertEquals(0, videoLibrary.getQueryCacheStats().invalidations);
+
+    videoLibrary.getVideo("amazing_cats_video_id").flagVideo();
+    assertEquals(2, videoLibrary.getQueryCacheStats().invalidations);
+    assertEquals(1, videoLibrary.searchVideos("cat").size());
+    videoLibrary.getVideo("amazing_cats_video_id").allowVideo();
+    assertEquals(2, videoLibrary.searchVideos("cat").size());
+
+    videoLibrary.addVideo("Cat Tricks", "cat_tricks_video_id", List.of("#trick"));
+    assertEquals(3, videoLibrary.searchVideos("cat").size());
+    assertEquals(2, videoLibrary.searchVideosWithTag("#cat").size());
+    stats = videoLibrary.getQueryCacheStats();
+    assertEquals(2, stats.hits);
+    assertEquals(6, stats.misses);
+    assertEquals(4, stats.invalidations);
+  }
+
+  @Test
+  public void testCachedSearchesSeeAddedVideosTheyMatch() {
+    assertEquals(0, videoLibrary.searchVideosWithTag("#trick").size());
+    assertEquals(2, videoLibrary.searchVideos("ca").size());
+    assertEquals(0, videoLibrary.searchVideos("tricks").size());
+    assertEquals(1, videoLibrary.searchVideos("dog").size());
+
+    videoLibrary.addVideo("Cat Tricks", "cat_tricks_video_id", List.of("#trick"));
+    assertEquals(3, videoLibrary.getQueryCacheStats().invalidations);
+    assertEquals(1, videoLibrary.searchVideosWithTag("#trick").size());
+    assertEquals(3, videoLibrary.searchVideos("ca").size());
+    assertEquals(1, videoLibrary.searchVideos("tricks").size());
+    assertEquals(1, videoLibrary.searchVideos("dog").size());
+    assertEquals(1, videoLibrary.getQueryCacheStats().hits);
+  }
+
+  @Test
+  public void testPagesResumeFromTheRetainedResult() {
+    for (int i = 0; i < 25; i++) {
+      videoLibrary.addVideo(String.format("Cat %02d", i), "cat_" + i, List.of("#cat"));
+    }
+    var first = videoLibrary.searchVideosPage("cat", 10);
+    assertEquals(10, first.videos.size());
+    assertEquals("Amazing Cats", first.videos.get(0).getTitle());
+    assertEquals("Cat 07", first.videos.get(9).getTitle());
+
+    videoLibrary.removeVideo("cat_9");
+    videoLibrary.addVideo("Cat 08a", "cat_later", List.of("#cat"));
+    var misses = videoLibrary.getQueryCacheStats().misses;
+    var second = videoLibrary.nextPage(first.nextCursor, 10);
+    assertEquals(10, second.offset);
+    assertEquals(List.of("cat_8", "cat_9", "cat_10"), ids(second.videos.subList(0, 3)));
+    var third = videoLibrary.nextPage(second.nextCursor, 10);
+    assertEquals(20, third.offset);
+    assertEquals("Cat 24", third.videos.get(third.videos.size() - 1).getTitle());
+    assertNull(third.nextCursor);
+    assertEquals(misses, videoLibrary.getQueryCacheStats().misses);
+  }
+
+  @Test
+  public void testPagesResumeAfterTheLastVideoShownWhenTheResultIsGone() {
+    for (int i = 0; i < 25; i++) {
+      videoLibrary.addVideo(String.format("Cat %02d", i), "cat_" + i, List.of("#cat"));
+    }
+    videoLibrary.removeVideo("cat_3");
+    videoLibrary.addVideo("Cat 00a", "cat_extra", List.of("#cat"));
+    videoLibrary.addVideo("Cat 08a", "cat_later", List.of("#cat"));
+    var unretained = new PageCursor(PageCursor.Listing.TITLE_SEARCH, "cat", 0, 10, "Cat 07",
+        "cat_7", 10).encode();
+    var second = videoLibrary.nextPage(unretained, 10);
+    assertEquals(10, second.offset);
+    assertEquals(List.of("cat_8", "cat_later", "cat_9"), ids(second.videos.subList(0, 3)));
+    var third = videoLibrary.nextPage(second.nextCursor, 10);
+    assertEquals(20, third.offset);
+    assertEquals("Cat 24", third.videos.get(third.videos.size() - 1).getTitle());
+    assertNull(third.nextCursor);
+
+    var all = new ArrayList<Video>();
+    var page = videoLibrary.getVideosPage(7);
+    all.addAll(page.videos);
+    while (page.nextCursor != null) {
+      page = videoLibrary.nextPage(page.nextCursor, 7);
+      all.addAll(page.videos);
+    }
+    assertEquals(videoLibrary.getVideos(), all);
+    assertEquals(28, videoLibrary.searchVideosWithTagPage("#CAT", 30).videos.size());
+    assertThrows(IllegalArgumentException.class, () -> videoLibrary.nextPage("not a cursor", 10));
+  }
+
+  @Test
+  public void testRenderedLinesFollowFlagChanges() {
+    var cats = videoLibrary.getVideo("amazing_cats_video_id");
+    var line = cats.getInfo("");
+    assertEquals("Amazing Cats (amazing_cats_video_id) [#cat #animal]", line);
+    assertSame(line, cats.getInfo(""));
+    assertEquals("1) " + line, cats.getInfo("1) "));
+
+    var dogsLine = videoLibrary.getVideo("funny_dogs_video_id").getInfo("");
+    cats.flagVideo("too cute");
+    assertEquals(line + " - FLAGGED (reason: too cute)", cats.getInfo(""));
+    assertSame(dogsLine, videoLibrary.getVideo("funny_dogs_video_id").getInfo(""));
+    cats.allowVideo();
+    assertEquals(line, cats.getInfo(""));
+
+    videoLibrary.addVideo("Solo", "solo_video_id", List.of("#one"));
+    assertEquals("Solo (solo_video_id) [#one]", videoLibrary.getVideo("solo_video_id").getInfo(""));
+  }
+
+  @Test
+  public void testChurnIsCompactedAway() {
+    var cats = videoLibrary.getVideo("amazing_cats_video_id");
+    var nothing = videoLibrary.getVideo("nothing_video_id");
+    cats.flagVideo("dont_like_cats");
+    videoLibrary.removeVideo("nothing_video_id");
+    var firstPage = videoLibrary.getVideosPage(2);
+    var before = videoLibrary.getVideos();
+
+    for (int i = 0; i < 3000; i++) {
+      videoLibrary.addVideo("Churn " + i, "churn_video_id", List.of("#churn" + i));
+      var version = store.version();
+      assertTrue(version.store.ordinalLimit() - version.size() <= 1025);
+      assertTrue(videoLibrary.getTagDictionary().size() <= 1030);
+    }
+
+    assertNotSame(store, store.version().store);
+    assertEquals(List.of("#churn2999"), videoLibrary.getVideo("churn_video_id").getTags());
+    assertEquals(1, videoLibrary.searchVideosWithTag("#churn2999").size());
+    assertTrue(videoLibrary.searchVideosWithTag("#churn0").isEmpty());
+    assertEquals(cats, videoLibrary.getVideo("amazing_cats_video_id"));
+    assertEquals("Amazing Cats (amazing_cats_video_id) [#cat #animal] - FLAGGED (reason: "
+        + "dont_like_cats)", cats.getInfo(""));
+    assertTrue(cats.allowVideo());
+    assertEquals(List.of(cats), videoLibrary.searchVideos("amazing"));
+    assertEquals("Video about nothing", nothing.getTitle());
+    assertFalse(nothing.getFlag());
+    var last = before.get(1);
+    var unretained = new PageCursor(PageCursor.Listing.ALL, "", 0, 2, last.getTitle(),
+        last.getVideoId(), 2).encode();
+    var all = videoLibrary.getVideos();
+    assertEquals(before.subList(0, 2), all.subList(0, 2));
+    assertEquals(all.subList(2, all.size()), videoLibrary.nextPage(unretained, 10).videos);
+    assertEquals(all.subList(2, all.size()),
+        videoLibrary.nextPage(firstPage.nextCursor, 10).videos);
+
+    var offHeapStore = new OffHeapVideoStore(new TagDictionary());
+    var offHeap = new VideoLibrary(offHeapStore);
+    for (int i = 0; i < 1100; i++) {
+      offHeap.addVideo("Churn " + i, "churn_video_id", List.of("#churn" + i));
+    }
+    assertNotSame(offHeapStore, offHeapStore.version().store);
+    assertEquals("Churn 1099 (churn_video_id) [#churn1099]",
+        offHeap.getVideo("churn_video_id").getInfo(""));
+    assertEquals(infos(videoLibrary.searchVideosWithTag("#animal")),
+        infos(offHeap.searchVideosWithTag("#animal")));
+  }
+
+  private static List<String> ids(List<Video> videos) {
+    var ids = new ArrayList<String>();
+    for (Video video : videos) {
+      ids.add(video.getVideoId());
+    }
+    return ids;
+  }
+
+  private static List<String> infos(List<Video> videos) {
+    var infos = new ArrayList<String>();
+    for (Video video : videos) {
+      infos.add(video.getInfo(""));
+    }
+    return infos;
+  }
+
 }